@@ -1,20 +1,15 @@
 set -e
 
 mvn clean package --activate-profiles linux-aarch64
-rm -rf ./temp-build
-mkdir temp-build
-cp target/java-opencv-lambda.jar ./temp-build/
-mv ./temp-build/java-opencv-lambda.jar ./temp-build/java-opencv-lambda.zip
-cd temp-build
-unzip java-opencv-lambda.zip
-rm java-opencv-lambda.zip
-
-cd ..
 rm -rf ./docker/code
-mkdir -p ./docker/code
-cp -r ./temp-build/* ./docker/code/
-rm -rf ./temp-build
+mkdir -p ./docker/code/lib ./docker/code/native
+# Kept as a jar on the class path, as AppCDS only archives classes loaded from jars
+cp target/java-opencv-lambda.jar ./docker/code/lib/
+# Extracted once here, rather than from the jar to /tmp on every cold start (see OPENCV_NATIVE_PATH in the Dockerfile)
+unzip -j -o target/java-opencv-lambda.jar 'nu/pattern/opencv/linux/ARMv8/libopencv_java*.so' -d ./docker/code/native
+mv ./docker/code/native/libopencv_java*.so ./docker/code/native/libopencv_java.so
 
+# The Dockerfile trains the AppCDS archive with a warm-up run, on the image's own JVM
 cd docker
 docker build -t java-opencv-lambda .
 
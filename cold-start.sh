@@ -0,0 +1,49 @@
+set -e
+# Measures cold starts of the built image (./build.sh) under the runtime interface emulator: the first invocation of a
+# new container includes JVM start and handler init, the second is warm. Each configuration is run RUNS times and
+# the median reported, "before" without the pre-extracted natives, AppCDS archive or warm-up, "after" as deployed.
+# Usage: ./cold-start.sh image.jpg [mode]
+
+IMAGE_FILE="$1"
+MODE="${2:-FaceDetection}"
+RUNS="${RUNS:-5}"
+PORT=9100
+if [ -z "$IMAGE_FILE" ]; then
+  echo "Usage: ./cold-start.sh image.jpg [mode]"
+  exit 1
+fi
+
+EVENT=$(mktemp)
+trap 'rm -f "$EVENT"; docker rm -f java-opencv-cold-start >/dev/null 2>&1 || true' EXIT
+printf '{"requestContext":{"http":{"method":"POST"}},"queryStringParameters":{"mode":"%s"},"isBase64Encoded":true,"body":"%s"}' \
+  "$MODE" "$(base64 -w0 "$IMAGE_FILE")" > "$EVENT"
+
+invoke() {
+  curl -s -o /dev/null -w '%{time_total}' -X POST --data-binary @"$EVENT" \
+    "http://localhost:${PORT}/2015-03-31/functions/function/invocations"
+}
+
+median() {
+  sort -n | awk '{ values[NR] = $1 } END { print values[int((NR + 1) / 2)] }'
+}
+
+measure() {
+  name="$1"
+  shift
+  cold=""
+  warm=""
+  for run in $(seq "$RUNS"); do
+    docker run -d --name java-opencv-cold-start --platform linux/arm64 -p "${PORT}:8080" "$@" java-opencv-lambda >/dev/null
+    until curl -s -o /dev/null "http://localhost:${PORT}/"; do sleep 0.1; done
+    cold="${cold}$(invoke)\n"
+    warm="${warm}$(invoke)\n"
+    docker rm -f java-opencv-cold-start >/dev/null
+  done
+  printf "%-8s cold %6.0f ms   warm %6.0f ms\n" "$name" \
+    "$(printf "$cold" | median | awk '{ print $1 * 1000 }')" \
+    "$(printf "$warm" | median | awk '{ print $1 * 1000 }')"
+}
+
+echo "Median of ${RUNS} runs of mode ${MODE}:"
+measure before -e APP_CDS_ARCHIVE= -e OPENCV_NATIVE_PATH= -e JAVA_TOOL_OPTIONS=-Dwarmup.iterations=0
+measure after
@@ -11,4 +11,4 @@ docker run \
     -p 9000:8080 \
     --entrypoint /aws-lambda/aws-lambda-rie \
     java-opencv-lambda \
-    java -cp './*:/var/runtime/lib/*' com.amazonaws.services.lambda.runtime.api.client.AWSLambda com.mycodefu.Main::handleRequest
+    /entrypoint.sh com.mycodefu.Main::handleRequest
@@ -0,0 +1,16 @@
+#!/bin/sh
+# Starts the Lambda runtime interface client with the function jar on the JVM class path, where AppCDS can map its
+# classes from the archive trained in the Dockerfile. The base image's bootstrap only has the runtime's own jars on
+# the class path and loads the function from /var/task with its own class loader, which the archive can't serve.
+# Set APP_CDS_ARCHIVE= (empty) to start without the archive, e.g. to compare cold starts.
+ARCHIVE="${APP_CDS_ARCHIVE-${LAMBDA_TASK_ROOT}/app-cds.jsa}"
+set -- java -XX:+TieredCompilation -XX:+UseSerialGC -Xshare:auto \
+  ${ARCHIVE:+-XX:SharedArchiveFile=${ARCHIVE}} \
+  -cp "${LAMBDA_TASK_ROOT}/lib/java-opencv-lambda.jar:/var/runtime/lib/*" \
+  com.amazonaws.services.lambda.runtime.api.client.AWSLambda "$@"
+
+if [ -z "${AWS_LAMBDA_RUNTIME_API}" ]; then
+  # Run locally under the runtime interface emulator, as the base image's entrypoint does
+  exec /usr/local/bin/aws-lambda-rie "$@"
+fi
+exec "$@"
@@ -0,0 +1,173 @@
+package com.mycodefu;
+
+import org.opencv.core.*;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures each leg of a request separately across image sizes and input types: Base64 decode, imdecode,
+ * each mode's processing, imencode and Base64 encode, plus the whole Lambda path per mode.
+ * Throughput and sampled latency percentiles are reported together, and 'mvn -P jmh verify' runs with the
+ * GC profiler for the allocation rate. Pass other JMH options with -Djmh.args, e.g.
+ * -Djmh.args="-prof gc -p resolution=VGA ImageProcessorBenchmark.process".
+ */
+@BenchmarkMode({org.openjdk.jmh.annotations.Mode.Throughput, org.openjdk.jmh.annotations.Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ImageProcessorBenchmark {
+
+    /**
+     * A synthetic photo-like image, so the fixtures need no files: a smooth gradient with sensor noise,
+     * an orange disc for the Mandarin mode and some hard edges, encoded as the request would send it.
+     */
+    @State(Scope.Benchmark)
+    public static class Fixture {
+        @Param({"VGA", "1080p", "12MP"})
+        public String resolution;
+
+        @Param({"jpeg", "png"})
+        public String contentType;
+
+        Mat encoded;
+        byte[] encodedBytes;
+        String base64;
+        Mat decoded;
+
+        @Setup
+        public void setUp() {
+            ClassifierRegistry.preload(1);
+            Size size = switch (resolution) {
+                case "VGA" -> new Size(640, 480);
+                case "1080p" -> new Size(1920, 1080);
+                case "12MP" -> new Size(4000, 3000);
+                default -> throw new IllegalArgumentException(resolution);
+            };
+            int rows = (int) size.height;
+            int cols = (int) size.width;
+
+            Mat image = new Mat(rows, cols, CvType.CV_8UC3);
+            Mat row = new Mat(1, cols, CvType.CV_8UC3);
+            for (int x = 0; x < cols; x++) {
+                row.put(0, x, 60 + 120.0 * x / cols, 90, 180 - 120.0 * x / cols);
+            }
+            for (int y = 0; y < rows; y++) {
+                row.copyTo(image.row(y));
+            }
+            Mat noise = new Mat(rows, cols, CvType.CV_8UC3);
+            Core.setRNGSeed(42);
+            Core.randn(noise, 0, 12);
+            Core.add(image, noise, image);
+            Imgproc.circle(image, new Point(cols * 0.6, rows * 0.5), rows / 6, new Scalar(0, 128, 255), -1);
+            Imgproc.rectangle(image, new Point(cols * 0.1, rows * 0.2), new Point(cols * 0.3, rows * 0.7), new Scalar(20, 20, 20), 8);
+
+            MatOfByte buffer = new MatOfByte();
+            Imgcodecs.imencode("jpeg".equals(contentType) ? ".jpg" : ".png", image, buffer);
+            encodedBytes = buffer.toArray();
+            encoded = buffer.reshape(1, 1);
+            base64 = Base64.getEncoder().encodeToString(encodedBytes);
+            decoded = Imgcodecs.imdecode(encoded, Imgcodecs.IMREAD_COLOR);
+
+            noise.release();
+            row.release();
+            image.release();
+        }
+
+        @TearDown
+        public void tearDown() {
+            decoded.release();
+            encoded.release();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ModeState {
+        @Param({"Grayscale", "GreenBlueRedSplit", "FaceDetection", "Mandarin", "ColorObjects"})
+        public String name;
+
+        ImageProcessor.Mode mode;
+
+        @Setup
+        public void setUp() {
+            mode = ImageProcessor.Mode.valueOf(name);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class CodecState {
+        @Param({"PNG", "JPEG", "WEBP"})
+        public OutputFormat.Codec codec;
+
+        OutputFormat format;
+
+        @Setup
+        public void setUp() {
+            format = new OutputFormat(codec, OutputFormat.DEFAULT_QUALITY);
+        }
+    }
+
+    @Benchmark
+    public byte[] base64Decode(Fixture fixture) {
+        return Base64.getDecoder().decode(fixture.base64);
+    }
+
+    @Benchmark
+    public long decode(Fixture fixture) {
+        Mat image = Imgcodecs.imdecode(fixture.encoded, Imgcodecs.IMREAD_COLOR);
+        long total = image.total();
+        image.release();
+        return total;
+    }
+
+    /**
+     * Processing alone, on a copy of the decoded image since the drawing modes modify their input.
+     */
+    @Benchmark
+    public long process(Fixture fixture, ModeState state) {
+        try (MatScope scope = new MatScope()) {
+            Mat image = scope.borrow(fixture.decoded.rows(), fixture.decoded.cols(), fixture.decoded.type());
+            fixture.decoded.copyTo(image);
+            return ImageProcessor.render(scope, image, state.mode, Map.of()).total();
+        }
+    }
+
+    @Benchmark
+    public long encode(Fixture fixture, CodecState state) {
+        MatOfByte encoded = new MatOfByte();
+        MatOfInt parameters = state.format.parameters();
+        Imgcodecs.imencode(state.format.extension(), fixture.decoded, encoded, parameters);
+        long total = encoded.total();
+        parameters.release();
+        encoded.release();
+        return total;
+    }
+
+    @Benchmark
+    public String base64Encode(Fixture fixture) {
+        return Base64.getEncoder().encodeToString(fixture.encodedBytes);
+    }
+
+    /**
+     * The whole Main path for a mode with its default output format, Base64 in and out.
+     */
+    @Benchmark
+    public String endToEnd(Fixture fixture, ModeState state) {
+        return ImageProcessor.processImage(fixture.base64, state.mode);
+    }
+
+    /**
+     * The binary path used by StreamingMain and LocalRunner, without the Base64 legs.
+     */
+    @Benchmark
+    public void endToEndBinary(Fixture fixture, ModeState state) throws IOException {
+        ImageProcessor.processImage(fixture.encodedBytes, state.mode, OutputFormat.defaultFor(state.mode), Map.of(), OutputStream.nullOutputStream());
+    }
+}
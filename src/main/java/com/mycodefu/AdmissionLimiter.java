@@ -0,0 +1,206 @@
+package com.mycodefu;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the OpenCV work in flight on a long running server, so a burst of large uploads queues or is
+ * turned away instead of exhausting native memory. A request needs one of a fixed number of concurrency
+ * permits (CPU count by default) and a share of a pixel budget sized from its image header, since working
+ * memory scales with the decoded pixel count rather than the upload size.
+ * <p>
+ * Requests wait up to a timeout for both, in arrival order. When too many are already waiting a request
+ * is rejected straight away.
+ * <p>
+ * Request bodies are read into native memory before the image header can be looked at, so the bytes they
+ * will be buffered in are reserved first, against a separate budget with the same queue and timeout.
+ */
+public final class AdmissionLimiter {
+    public static final AdmissionLimiter SHARED = new AdmissionLimiter(
+            Integer.getInteger("limiter.maxConcurrent", Runtime.getRuntime().availableProcessors()),
+            Long.getLong("limiter.maxPixels", 100_000_000L),
+            Integer.getInteger("limiter.maxQueued", 64),
+            Long.getLong("limiter.queueTimeoutMs", 5_000L),
+            Long.getLong("limiter.maxBufferedBytes", 256L * 1024 * 1024));
+
+    // Semaphore permits are ints, so the pixel and byte budgets are counted in blocks
+    private static final int PIXELS_PER_PERMIT = 1024;
+    private static final int BYTES_PER_PERMIT = 64 * 1024;
+
+    /**
+     * Thrown when a request can't be admitted. queueFull is true when it was rejected without waiting.
+     */
+    public static final class SaturatedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean queueFull;
+
+        SaturatedException(boolean queueFull, String message) {
+            super(message);
+            this.queueFull = queueFull;
+        }
+
+        public boolean queueFull() {
+            return queueFull;
+        }
+    }
+
+    /**
+     * Admission for one request, released on close.
+     */
+    public final class Permit implements AutoCloseable {
+        private final int pixelPermits;
+        private boolean closed;
+
+        private Permit(int pixelPermits) {
+            this.pixelPermits = pixelPermits;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                pixelBudget.release(pixelPermits);
+                concurrency.release();
+            }
+        }
+    }
+
+    /**
+     * Bytes reserved for buffering one request body, released on close.
+     */
+    public final class Reservation implements AutoCloseable {
+        private final int bytePermits;
+        private boolean closed;
+
+        private Reservation(int bytePermits) {
+            this.bytePermits = bytePermits;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                byteBudget.release(bytePermits);
+            }
+        }
+    }
+
+    private final Semaphore concurrency;
+    // Fair, so a large request at the head of the queue isn't starved by a stream of small ones
+    private final Semaphore pixelBudget;
+    private final int pixelBudgetPermits;
+    private final Semaphore byteBudget;
+    private final int byteBudgetPermits;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long timeoutNanos;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    public AdmissionLimiter(int maxConcurrent, long maxPixels, int maxQueued, long queueTimeoutMillis) {
+        this(maxConcurrent, maxPixels, maxQueued, queueTimeoutMillis, Long.MAX_VALUE);
+    }
+
+    public AdmissionLimiter(int maxConcurrent, long maxPixels, int maxQueued, long queueTimeoutMillis, long maxBufferedBytes) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.pixelBudgetPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxPixels / PIXELS_PER_PERMIT));
+        this.concurrency = new Semaphore(this.maxConcurrent, true);
+        this.pixelBudget = new Semaphore(pixelBudgetPermits, true);
+        this.byteBudgetPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBufferedBytes / BYTES_PER_PERMIT));
+        this.byteBudget = new Semaphore(byteBudgetPermits, true);
+        this.maxQueued = maxQueued;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+    }
+
+    /**
+     * Wait for admission of a request that will decode the given number of pixels.
+     * A request larger than the whole budget is admitted once it has the budget to itself.
+     *
+     * @param pixels the decoded pixel count, or 0 when unknown, which is charged an even share of the budget
+     * @throws SaturatedException when the queue is full or the request timed out waiting
+     */
+    public Permit acquire(long pixels) {
+        int pixelPermits = pixels <= 0
+                ? pixelBudgetPermits / maxConcurrent
+                : (int) Math.min(pixelBudgetPermits, (pixels + PIXELS_PER_PERMIT - 1) / PIXELS_PER_PERMIT);
+        pixelPermits = Math.max(1, pixelPermits);
+
+        // Uncontended requests don't count as waiting. A zero timeout, unlike a plain tryAcquire, doesn't jump the queue.
+        try {
+            if (concurrency.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+                if (pixelBudget.tryAcquire(pixelPermits, 0, TimeUnit.NANOSECONDS)) {
+                    return new Permit(pixelPermits);
+                }
+                concurrency.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SaturatedException(false, "Interrupted waiting for capacity");
+        }
+
+        if (waiting.incrementAndGet() > maxQueued) {
+            waiting.decrementAndGet();
+            throw new SaturatedException(true, "Too many requests are waiting, try again later");
+        }
+        try {
+            long deadline = System.nanoTime() + timeoutNanos;
+            if (!concurrency.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new SaturatedException(false, "Timed out waiting for capacity, try again later");
+            }
+            if (!pixelBudget.tryAcquire(pixelPermits, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                concurrency.release();
+                throw new SaturatedException(false, "Timed out waiting for capacity, try again later");
+            }
+            return new Permit(pixelPermits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SaturatedException(false, "Interrupted waiting for capacity");
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Wait for the budget to buffer a request body of the given size, before allocating anything for it.
+     * A body larger than the whole budget is admitted once it has the budget to itself.
+     *
+     * @throws SaturatedException when the queue is full or the request timed out waiting
+     */
+    public Reservation reserveBytes(long bytes) {
+        int bytePermits = (int) Math.max(1, Math.min(byteBudgetPermits, (bytes + BYTES_PER_PERMIT - 1) / BYTES_PER_PERMIT));
+
+        try {
+            if (byteBudget.tryAcquire(bytePermits, 0, TimeUnit.NANOSECONDS)) {
+                return new Reservation(bytePermits);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SaturatedException(false, "Interrupted waiting for capacity");
+        }
+
+        if (waiting.incrementAndGet() > maxQueued) {
+            waiting.decrementAndGet();
+            throw new SaturatedException(true, "Too many requests are waiting, try again later");
+        }
+        try {
+            if (!byteBudget.tryAcquire(bytePermits, timeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new SaturatedException(false, "Timed out waiting for capacity, try again later");
+            }
+            return new Reservation(bytePermits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SaturatedException(false, "Interrupted waiting for capacity");
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    public int inFlight() {
+        return maxConcurrent - concurrency.availablePermits();
+    }
+
+    public int waiting() {
+        return waiting.get();
+    }
+}
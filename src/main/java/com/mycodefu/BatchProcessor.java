@@ -0,0 +1,203 @@
+package com.mycodefu;
+
+import org.opencv.core.Mat;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs several modes over many images in one request, from a JSON body such as:
+ * <pre>
+ * {"modes": ["Grayscale", "Mandarin"], "parameters": {"format": "jpeg"}, "images": ["&lt;base64&gt;", ...]}
+ * </pre>
+ * 'parameters' takes the same options as the query string of a single image request, as string values,
+ * and overrides it.
+ * When 'modes' is missing the query string 'mode' is used.
+ * <p>
+ * Each image is decoded once and shared by all of its modes, and images are processed in parallel.
+ * The response has a result for each image and mode in order, holding either the Base64 encoded output
+ * (or the detections object for JSON output) or the error that item failed with:
+ * <pre>
+ * {"results": [{"image": 0, "mode": "Grayscale", "contentType": "image/png", "body": "..."},
+ *              {"image": 0, "mode": "Mandarin", "contentType": "application/json", "detections": {...}},
+ *              {"image": 1, "mode": "Grayscale", "error": "Could not decode the input image"}]}
+ * </pre>
+ */
+public final class BatchProcessor {
+    public static final String CONTENT_TYPE = "application/json";
+
+    private static final int MAX_IMAGES = Integer.getInteger("batch.maxImages", 1000);
+
+    // Images are processed on their own pool so that waiting on them never blocks the tiling pool
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            Integer.getInteger("batch.parallelism", Runtime.getRuntime().availableProcessors()),
+            runnable -> {
+                Thread thread = new Thread(runnable, "batch-image");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private record Request(List<ImageProcessor.Mode> modes, Map<String, String> parameters, List<DirectBuffer> images) {
+    }
+
+    private record Result(ImageProcessor.Mode mode, OutputFormat format, byte[] body, String error) {
+    }
+
+    private BatchProcessor() {
+    }
+
+    /**
+     * Whether a request is a batch, which is signalled by a JSON request body.
+     */
+    public static boolean isBatch(String contentType) {
+        return contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith(CONTENT_TYPE);
+    }
+
+    /**
+     * Process a batch request body, writing the JSON results to the output stream.
+     * Problems with the request as a whole are thrown as an {@link IllegalArgumentException} before anything
+     * is written, while a failure for a single image or mode is reported in its result.
+     */
+    public static void process(InputStream body, Map<String, String> queryStringParameters, OutputStream output) throws IOException {
+        Request request = readRequest(new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8)), queryStringParameters);
+
+        List<Future<List<Result>>> futures = new ArrayList<>(request.images().size());
+        for (DirectBuffer image : request.images()) {
+            futures.add(EXECUTOR.submit(RequestMetrics.inheriting(() -> processImage(image, request.modes(), request.parameters()))));
+        }
+
+        // Results are written in order as each image completes
+        BufferedOutputStream bufferedOutput = new BufferedOutputStream(output);
+        JsonWriter json = new JsonWriter(bufferedOutput);
+        json.beginObject().name("results").beginArray();
+        for (int index = 0; index < futures.size(); index++) {
+            for (Result result : await(futures.get(index))) {
+                json.beginObject()
+                        .name("image").value(index)
+                        .name("mode").value(result.mode().name());
+                if (result.error() != null) {
+                    json.name("error").value(result.error());
+                } else if (result.format().codec() == OutputFormat.Codec.JSON) {
+                    json.name("contentType").value(result.format().contentType())
+                            .name("detections").rawValue(result.body());
+                } else {
+                    json.name("contentType").value(result.format().contentType())
+                            .name("body");
+                    try (OutputStream base64 = json.base64Value()) {
+                        base64.write(result.body());
+                    }
+                }
+                json.endObject();
+            }
+        }
+        json.endArray().endObject();
+        bufferedOutput.flush();
+    }
+
+    private static List<Result> processImage(DirectBuffer encodedImage, List<ImageProcessor.Mode> modes, Map<String, String> parameters) {
+        List<Result> results = new ArrayList<>(modes.size());
+        try (MatScope scope = new MatScope()) {
+            Mat image;
+            try {
+                image = ImageProcessor.decode(scope, encodedImage.decodeBase64InPlace(), modes);
+            } catch (RuntimeException e) {
+                for (ImageProcessor.Mode mode : modes) {
+                    results.add(new Result(mode, null, null, message(e)));
+                }
+                return results;
+            }
+
+            for (ImageProcessor.Mode mode : modes) {
+                // Each mode's working Mats are released before the next, while the decoded image is kept for all of them
+                try (MatScope modeScope = new MatScope()) {
+                    OutputFormat format = OutputFormat.negotiate(mode, parameters, null);
+                    ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    ImageProcessor.processDecoded(modeScope, image, mode, format, parameters, output);
+                    results.add(new Result(mode, format, output.toByteArray(), null));
+                } catch (RuntimeException | IOException e) {
+                    results.add(new Result(mode, null, null, message(e)));
+                }
+            }
+        }
+        return results;
+    }
+
+    private static Request readRequest(Reader reader, Map<String, String> queryStringParameters) {
+        List<ImageProcessor.Mode> modes = null;
+        Map<String, String> parameters = new HashMap<>();
+        if (queryStringParameters != null) {
+            parameters.putAll(queryStringParameters);
+        }
+        List<DirectBuffer> images = new ArrayList<>();
+        try {
+            JsonReader json = new JsonReader(reader);
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if (json.peek() == JsonReader.Token.NULL) {
+                    json.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "modes" -> {
+                        modes = new ArrayList<>();
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            modes.add(ImageProcessor.Mode.valueOf(json.nextString()));
+                        }
+                        json.endArray();
+                    }
+                    case "parameters" -> parameters.putAll(json.nextStringMap());
+                    case "images" -> {
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            if (images.size() == MAX_IMAGES) {
+                                throw new IllegalArgumentException("A batch can have at most " + MAX_IMAGES + " images");
+                            }
+                            // The Base64 text is held as is and decoded in place by the image's task
+                            DirectBuffer image = new DirectBuffer(64 * 1024);
+                            json.nextString(image);
+                            images.add(image);
+                        }
+                        json.endArray();
+                    }
+                    default -> json.skipValue();
+                }
+            }
+            json.endObject();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid batch request: " + e.getMessage(), e);
+        }
+
+        if (modes == null) {
+            modes = List.of(Main.parseMode(parameters));
+        }
+        if (modes.isEmpty() || images.isEmpty()) {
+            throw new IllegalArgumentException("A batch needs at least one mode and one image");
+        }
+        return new Request(modes, parameters, images);
+    }
+
+    private static List<Result> await(Future<List<Result>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while processing the batch", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static String message(Exception e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,45 @@
+package com.mycodefu;
+
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
+
+/**
+ * Keeps the handler correct when its process is checkpointed after init and restored later, possibly on another
+ * machine, as Lambda SnapStart and CRaC JVMs do. On other JVMs registering does nothing.
+ * <ul>
+ * <li>Pooled Mats are released before the checkpoint, so the snapshot doesn't carry them.</li>
+ * <li>Cascade files copied to the temp directory are copied again after restore if they have gone, as classifier
+ * instances beyond those already pooled are loaded from them.</li>
+ * <li>The first request after restore is reported as a cold start, with the restore time as its init time.</li>
+ * </ul>
+ * Nothing in the pipeline is seeded with randomness or holds files or connections open between requests,
+ * so there is nothing else to re-create.
+ */
+final class CheckpointHooks implements Resource {
+    // The global context only holds registered resources weakly
+    private static final CheckpointHooks INSTANCE = new CheckpointHooks();
+
+    private CheckpointHooks() {
+    }
+
+    static void register() {
+        Core.getGlobalContext().register(INSTANCE);
+    }
+
+    static CheckpointHooks instance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) {
+        MatPool.SHARED.clear();
+    }
+
+    @Override
+    public void afterRestore(Context<? extends Resource> context) {
+        long start = System.nanoTime();
+        ClassifierRegistry.restoreFiles();
+        RequestMetrics.recordRestore(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,152 @@
+package com.mycodefu;
+
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Cascade classifiers by name, loaded once up front and handed out from a pool so that
+ * concurrent requests each get exclusive use of an instance while running detectMultiScale.
+ * <p>
+ * The Java bindings can only load a cascade from a file, so each model is copied out of the jar once
+ * at registration to a uniquely named temp file, and every pooled instance is loaded from that copy.
+ */
+public final class ClassifierRegistry {
+    public static final String FRONTAL_FACE = "frontalface";
+
+    private static final Map<String, Model> MODELS = new ConcurrentHashMap<>();
+
+    static {
+        NativeLibrary.load();
+        register(FRONTAL_FACE, "/haarcascade_frontalface_default.xml");
+    }
+
+    private ClassifierRegistry() {
+    }
+
+    // The resource is null for models registered from a file
+    private record Model(String name, String resource, Path path, ConcurrentLinkedDeque<CascadeClassifier> idle) {
+        CascadeClassifier load() {
+            CascadeClassifier classifier = new CascadeClassifier();
+            if (!classifier.load(path.toString())) {
+                throw new IllegalStateException("Failed to load cascade classifier '" + name + "' from " + path);
+            }
+            return classifier;
+        }
+    }
+
+    /**
+     * A classifier on loan to the caller, returned to the pool on close.
+     */
+    public static final class Lease implements AutoCloseable {
+        private final Model model;
+        private final CascadeClassifier classifier;
+
+        private Lease(Model model, CascadeClassifier classifier) {
+            this.model = model;
+            this.classifier = classifier;
+        }
+
+        public CascadeClassifier classifier() {
+            return classifier;
+        }
+
+        @Override
+        public void close() {
+            model.idle().push(classifier);
+        }
+    }
+
+    /**
+     * Register a cascade model from a classpath resource, loading its first instance immediately.
+     */
+    public static void register(String name, String resource) {
+        try {
+            Path path = Files.createTempFile(name + "-", ".xml");
+            path.toFile().deleteOnExit();
+            copy(resource, path);
+            register(new Model(name, resource, path, new ConcurrentLinkedDeque<>()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Register a cascade model from a file on disk, loading its first instance immediately.
+     */
+    public static void register(String name, Path path) {
+        register(new Model(name, null, path, new ConcurrentLinkedDeque<>()));
+    }
+
+    private static void register(Model model) {
+        model.idle().push(model.load());
+        MODELS.put(model.name(), model);
+    }
+
+    /**
+     * Copy models registered from resources back out of the jar if their temp files have gone, as happens
+     * when a snapshot is restored on another machine, since instances beyond those pooled are loaded from them.
+     */
+    static void restoreFiles() {
+        for (Model model : MODELS.values()) {
+            if (model.resource() != null && !Files.exists(model.path())) {
+                try {
+                    Files.createDirectories(model.path().getParent());
+                    copy(model.resource(), model.path());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    static Path path(String name) {
+        return MODELS.get(name).path();
+    }
+
+    private static void copy(String resource, Path path) throws IOException {
+        try (InputStream is = ClassifierRegistry.class.getResourceAsStream(resource)) {
+            if (is == null) {
+                throw new IllegalArgumentException("Cascade resource not found: " + resource);
+            }
+            Files.copy(is, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Load up to the given number of instances of every registered model, so that the first
+     * concurrent requests do not pay to parse the cascade XML.
+     */
+    public static void preload(int instancesPerModel) {
+        for (Model model : MODELS.values()) {
+            for (int i = model.idle().size(); i < instancesPerModel; i++) {
+                model.idle().push(model.load());
+            }
+        }
+    }
+
+    public static Lease acquire(String name) {
+        Model model = MODELS.get(name);
+        if (model == null) {
+            throw new IllegalArgumentException("No cascade classifier registered as '" + name + "'");
+        }
+        CascadeClassifier classifier = model.idle().poll();
+        if (classifier == null) {
+            classifier = model.load();
+        }
+        return new Lease(model, classifier);
+    }
+
+    public static Set<String> names() {
+        return MODELS.keySet();
+    }
+}
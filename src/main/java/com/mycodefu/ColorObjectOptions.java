@@ -0,0 +1,142 @@
+package com.mycodefu;
+
+import java.util.*;
+
+/**
+ * The named colours to find in ColorObjects mode, from the 'colors' query string parameter or else the
+ * colorObjects.colors system property, with the 'topK' and 'minArea' parameters.
+ * Each colour is a name and an HSV range, given as low-high pairs of hue, saturation and value, separated by semicolons:
+ * <pre>
+ * orange:8-18,150-255,100-255;lime:35-50,100-255,80-255;red:170-8,120-255,70-255
+ * </pre>
+ * Hue is OpenCV's 0-179, and a hue range whose low end is above its high end wraps around through 0, as reds do.
+ *
+ * @param topK    the most objects to return of each colour, largest first
+ * @param minArea the smallest contour area to count as an object, in pixels
+ */
+public record ColorObjectOptions(List<ColorRange> colors, int topK, double minArea) {
+    // Each colour is one bit of the label image
+    public static final int MAX_COLORS = 8;
+
+    private static final List<ColorRange> CONFIGURED_COLORS =
+            parseColors(System.getProperty("colorObjects.colors", "orange:8-18,150-255,100-255"));
+    private static final int DEFAULT_TOP_K = 5;
+
+    public record ColorRange(String name, int hueLow, int hueHigh, int saturationLow, int saturationHigh,
+                             int valueLow, int valueHigh) {
+        public ColorRange {
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("Color names must not be empty");
+            }
+            checkRange(name, "hue", hueLow, hueHigh, 179, true);
+            checkRange(name, "saturation", saturationLow, saturationHigh, 255, false);
+            checkRange(name, "value", valueLow, valueHigh, 255, false);
+        }
+
+        public boolean containsHue(int hue) {
+            return hueLow <= hueHigh
+                    ? hue >= hueLow && hue <= hueHigh
+                    : hue >= hueLow || hue <= hueHigh;
+        }
+
+        /**
+         * The hue in the middle of the range, taking wrapping into account.
+         */
+        public double middleHue() {
+            int width = hueLow <= hueHigh ? hueHigh - hueLow : hueHigh + 180 - hueLow;
+            return (hueLow + width / 2.0) % 180;
+        }
+    }
+
+    public ColorObjectOptions {
+        if (colors.isEmpty() || colors.size() > MAX_COLORS) {
+            throw new IllegalArgumentException("Between 1 and " + MAX_COLORS + " colors are needed");
+        }
+        Set<String> names = new HashSet<>();
+        for (ColorRange color : colors) {
+            if (!names.add(color.name())) {
+                throw new IllegalArgumentException("Color '" + color.name() + "' is given twice");
+            }
+        }
+        if (topK < 1) {
+            throw new IllegalArgumentException("topK must be at least 1");
+        }
+        if (minArea < 0) {
+            throw new IllegalArgumentException("minArea must not be negative");
+        }
+        colors = List.copyOf(colors);
+    }
+
+    public static ColorObjectOptions from(Map<String, String> parameters) {
+        if (parameters == null) {
+            parameters = Map.of();
+        }
+        String colors = parameters.get("colors");
+        return new ColorObjectOptions(
+                colors == null ? CONFIGURED_COLORS : parseColors(colors),
+                QueryParameters.parseInt(parameters, "topK", DEFAULT_TOP_K),
+                QueryParameters.parseDouble(parameters, "minArea", 0));
+    }
+
+    /**
+     * A lookup table for each HSV channel, as 256 interleaved triples, mapping a channel value to the bits of the
+     * colours whose range holds it. A pixel is of the colours whose bits are set for all three of its channels.
+     */
+    public byte[] lookupTable() {
+        byte[] table = new byte[256 * 3];
+        for (int bit = 0; bit < colors.size(); bit++) {
+            ColorRange color = colors.get(bit);
+            for (int value = 0; value < 256; value++) {
+                if (value < 180 && color.containsHue(value)) {
+                    table[value * 3] |= (byte) (1 << bit);
+                }
+                if (value >= color.saturationLow() && value <= color.saturationHigh()) {
+                    table[value * 3 + 1] |= (byte) (1 << bit);
+                }
+                if (value >= color.valueLow() && value <= color.valueHigh()) {
+                    table[value * 3 + 2] |= (byte) (1 << bit);
+                }
+            }
+        }
+        return table;
+    }
+
+    static List<ColorRange> parseColors(String colors) {
+        List<ColorRange> ranges = new ArrayList<>();
+        for (String color : colors.split(";")) {
+            if (color.isBlank()) {
+                continue;
+            }
+            int separator = color.indexOf(':');
+            String[] channels = separator < 0 ? new String[0] : color.substring(separator + 1).split(",");
+            if (channels.length != 3) {
+                throw new IllegalArgumentException("Expected a color as name:hue,saturation,value ranges, was '" + color + "'");
+            }
+            int[] hue = parsePair(color, channels[0]);
+            int[] saturation = parsePair(color, channels[1]);
+            int[] value = parsePair(color, channels[2]);
+            ranges.add(new ColorRange(color.substring(0, separator).trim(),
+                    hue[0], hue[1], saturation[0], saturation[1], value[0], value[1]));
+        }
+        return ranges;
+    }
+
+    private static int[] parsePair(String color, String pair) {
+        String[] bounds = pair.trim().split("-");
+        try {
+            if (bounds.length == 2) {
+                return new int[]{Integer.parseInt(bounds[0].trim()), Integer.parseInt(bounds[1].trim())};
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Expected a low-high range in color '" + color + "', was '" + pair + "'");
+    }
+
+    private static void checkRange(String name, String channel, int low, int high, int max, boolean wraps) {
+        if (low < 0 || high < 0 || low > max || high > max || (!wraps && low > high)) {
+            throw new IllegalArgumentException("The " + channel + " range of color '" + name + "' must be within 0-" + max
+                    + (wraps ? "" : " with low at most high"));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.mycodefu;
+
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Finds objects of several named colours at once, see {@link ColorObjectOptions}, and circles and names them.
+ */
+public final class ColorObjectsProcessor implements Processor {
+    @Override
+    public String name() {
+        return "ColorObjects";
+    }
+
+    @Override
+    public Output output() {
+        return Output.PHOTOGRAPHIC;
+    }
+
+    @Override
+    public boolean mutatesInput() {
+        return true;
+    }
+
+    @Override
+    public Mat render(MatScope scope, Mat image, Map<String, String> parameters) {
+        return processColorObjects(scope, image, ColorObjectOptions.from(parameters));
+    }
+
+    @Override
+    public boolean hasDetections() {
+        return true;
+    }
+
+    @Override
+    public Detections detect(MatScope scope, Mat image, Size originalSize, Map<String, String> parameters) {
+        Map<String, List<ColorObject>> objects = detectColorObjects(scope, image, ColorObjectOptions.from(parameters));
+        return json -> {
+            json.name("objects").beginObject();
+            for (Map.Entry<String, List<ColorObject>> color : objects.entrySet()) {
+                json.name(color.getKey()).beginArray();
+                for (ColorObject object : color.getValue()) {
+                    json.beginObject()
+                            .name("x").value(object.center().x)
+                            .name("y").value(object.center().y)
+                            .name("radius").value(object.radius())
+                            .name("area").value(object.area())
+                            .endObject();
+                }
+                json.endArray();
+            }
+            json.endObject();
+        };
+    }
+
+    /**
+     * An object of one of the requested colours, with its contour area and enclosing circle.
+     */
+    record ColorObject(double area, Point center, float radius) {
+    }
+
+    /**
+     * Find objects of several colours at once. The image is converted to HSV once, and a single lookup table
+     * pass labels each pixel with a bit for every colour range it falls in, rather than a thresholding pass
+     * per colour. Each colour's bit is then cleaned up and searched for contours as in {@link MandarinProcessor#detectMandarin}.
+     *
+     * @return each colour's largest objects, largest first, in the order the colours were given
+     */
+    static Map<String, List<ColorObject>> detectColorObjects(MatScope scope, Mat image, ColorObjectOptions options) {
+        int rows = image.rows();
+        int cols = image.cols();
+
+        Mat lookupTable = scope.mat(1, 256, CvType.CV_8UC3);
+        lookupTable.put(0, 0, options.lookupTable());
+        Mat labels = scope.borrow(rows, cols, CvType.CV_8UC1);
+        TiledExecutor.SHARED.apply(scope, image, labels, (imageBand, labelBand) -> {
+            Mat hsvBand = scope.borrow(imageBand.rows(), cols, CvType.CV_8UC3);
+            Imgproc.cvtColor(imageBand, hsvBand, Imgproc.COLOR_BGR2HSV);
+            Core.LUT(hsvBand, lookupTable, hsvBand);
+            // A pixel is of the colours all three of its channels agree on
+            Mat channel = scope.borrow(imageBand.rows(), cols, CvType.CV_8UC1);
+            Core.extractChannel(hsvBand, labelBand, 0);
+            Core.extractChannel(hsvBand, channel, 1);
+            Core.bitwise_and(labelBand, channel, labelBand);
+            Core.extractChannel(hsvBand, channel, 2);
+            Core.bitwise_and(labelBand, channel, labelBand);
+        });
+
+        Mat kernel = scope.track(Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(5, 5)));
+        Mat mask = scope.borrow(rows, cols, CvType.CV_8UC1);
+        Mat opened = scope.borrow(rows, cols, CvType.CV_8UC1);
+        Mat hierarchy = scope.mat();
+        Mat bitTable = scope.mat(1, 256, CvType.CV_8UC1);
+        byte[] bitValues = new byte[256];
+        Map<String, List<ColorObject>> objects = new LinkedHashMap<>();
+        for (int bit = 0; bit < options.colors().size(); bit++) {
+            // Another lookup table picks this colour's bit out of the labels as a mask
+            for (int label = 0; label < 256; label++) {
+                bitValues[label] = (label & (1 << bit)) != 0 ? (byte) 255 : 0;
+            }
+            bitTable.put(0, 0, bitValues);
+            Core.LUT(labels, bitTable, mask);
+            ImageProcessor.morphology(scope, mask, opened, Imgproc.MORPH_OPEN, kernel);
+            ImageProcessor.morphology(scope, opened, mask, Imgproc.MORPH_CLOSE, kernel);
+
+            List<MatOfPoint> contours = new ArrayList<>();
+            Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+            scope.trackAll(contours);
+
+            // Areas are worked out once up front, and only the objects returned need their circles
+            double[] areas = new double[contours.size()];
+            Integer[] order = new Integer[contours.size()];
+            for (int i = 0; i < contours.size(); i++) {
+                areas[i] = Imgproc.contourArea(contours.get(i));
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(areas[b], areas[a]));
+            List<ColorObject> found = new ArrayList<>();
+            for (int i = 0; i < order.length && found.size() < options.topK(); i++) {
+                double area = areas[order[i]];
+                if (area <= 0 || area < options.minArea()) {
+                    break;
+                }
+                Point center = new Point();
+                float[] radius = new float[1];
+                Imgproc.minEnclosingCircle(scope.track(new MatOfPoint2f(contours.get(order[i]).toArray())), center, radius);
+                found.add(new ColorObject(area, center, radius[0]));
+            }
+            objects.put(options.colors().get(bit).name(), found);
+        }
+        return objects;
+    }
+
+    // Circle and name each object in its colour's middle hue
+    private static Mat processColorObjects(MatScope scope, Mat image, ColorObjectOptions options) {
+        Map<String, List<ColorObject>> objects = detectColorObjects(scope, image, options);
+        Mat hsv = scope.mat(1, 1, CvType.CV_8UC3);
+        Mat bgr = scope.mat();
+        for (ColorObjectOptions.ColorRange color : options.colors()) {
+            hsv.put(0, 0, color.middleHue(), 255, 255);
+            Imgproc.cvtColor(hsv, bgr, Imgproc.COLOR_HSV2BGR);
+            double[] drawColor = bgr.get(0, 0);
+            Scalar scalar = new Scalar(drawColor);
+            for (ColorObject object : objects.get(color.name())) {
+                Imgproc.circle(image, object.center(), (int) object.radius(), scalar, 2);
+                Imgproc.putText(image, color.name(),
+                        new Point(object.center().x - object.radius(), object.center().y - object.radius() - 4),
+                        Imgproc.FONT_HERSHEY_SIMPLEX, 0.5, scalar, 1, Imgproc.LINE_AA);
+            }
+        }
+        return image;
+    }
+}
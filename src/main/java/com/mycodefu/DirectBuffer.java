@@ -0,0 +1,143 @@
+package com.mycodefu;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * A growable direct (off-heap) byte buffer for request bodies, so an upload is held once in native
+ * memory and can be wrapped as a Mat for decoding without another copy.
+ */
+public final class DirectBuffer implements JsonReader.CharSink {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private ByteBuffer buffer;
+
+    public DirectBuffer(int initialCapacity) {
+        buffer = ByteBuffer.allocateDirect(Math.max(initialCapacity, 16));
+    }
+
+    public void put(byte b) {
+        ensureCapacity(1);
+        buffer.put(b);
+    }
+
+    public void put(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        buffer.put(bytes, offset, length);
+    }
+
+    /**
+     * Accepts the characters of a Base64 string value streamed from a {@link JsonReader}.
+     */
+    @Override
+    public void put(char c) throws IOException {
+        if (c > 0x7f) {
+            throw new IOException("Expected a Base64 encoded or ASCII body");
+        }
+        put((byte) c);
+    }
+
+    public void readFrom(InputStream in) throws IOException {
+        readFrom(in, Long.MAX_VALUE);
+    }
+
+    /**
+     * Read the stream to its end, unless it holds more than maxBytes.
+     *
+     * @return false if reading stopped because the stream was too large
+     */
+    public boolean readFrom(InputStream in, long maxBytes) throws IOException {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            if (size() + (long) read > maxBytes) {
+                return false;
+            }
+            put(chunk, 0, read);
+        }
+        return true;
+    }
+
+    /**
+     * Discard the contents, keeping the capacity, so the buffer can be refilled without reallocating.
+     */
+    public void clear() {
+        buffer.clear();
+    }
+
+    public int size() {
+        return buffer.position();
+    }
+
+    /**
+     * The bytes written so far, as a buffer positioned at zero.
+     */
+    public ByteBuffer contents() {
+        return buffer.duplicate().flip();
+    }
+
+    /**
+     * The bytes written so far as a stream, for parsing a body that is not an image.
+     */
+    public InputStream inputStream() {
+        ByteBuffer contents = contents();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return contents.hasRemaining() ? contents.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!contents.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(len, contents.remaining());
+                contents.get(b, off, count);
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Decode the Base64 text held in the buffer, writing the bytes back over the text.
+     * Decoded output is always shorter than its input so this never overwrites text not yet read.
+     */
+    public ByteBuffer decodeBase64InPlace() {
+        Base64.Decoder decoder = Base64.getDecoder();
+        int length = buffer.position();
+        byte[] encoded = new byte[(CHUNK_SIZE / 4) * 4];
+        byte[] decoded = new byte[(encoded.length / 4) * 3];
+        int read = 0;
+        int written = 0;
+        while (read < length) {
+            int count = Math.min(encoded.length, length - read);
+            buffer.get(read, encoded, 0, count);
+            int decodedCount = count == encoded.length
+                    ? decoder.decode(encoded, decoded)
+                    : decoder.decode(Arrays.copyOf(encoded, count), decoded);
+            buffer.put(written, decoded, 0, decodedCount);
+            read += count;
+            written += decodedCount;
+        }
+        buffer.position(written);
+        return contents();
+    }
+
+    private void ensureCapacity(int additional) {
+        if (buffer.remaining() >= additional) {
+            return;
+        }
+        long required = (long) buffer.position() + additional;
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(required, (long) buffer.capacity() * 2));
+        if (capacity < required) {
+            throw new IllegalStateException("Body too large");
+        }
+        ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+        grown.put(buffer.flip());
+        buffer = grown;
+    }
+}
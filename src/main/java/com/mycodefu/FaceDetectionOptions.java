@@ -0,0 +1,60 @@
+package com.mycodefu;
+
+import java.util.Map;
+
+/**
+ * Tuning for the face detection pipeline, from the 'maxDimension', 'scaleFactor', 'minNeighbors' and 'minSize'
+ * query string parameters.
+ * Cascade cost scales with the pixel count and the number of pyramid levels, so detection runs on a copy
+ * of the image downscaled to at most maxDimension pixels on its longest side.
+ *
+ * @param maxDimension the longest side of the image detection runs on, or 0 to detect at full resolution
+ * @param minSize      the smallest face to find, in pixels of the original image
+ */
+public record FaceDetectionOptions(int maxDimension, double scaleFactor, int minNeighbors, int minSize) {
+    public static final FaceDetectionOptions DEFAULT = new FaceDetectionOptions(640, 1.1, 3, 30);
+
+    public FaceDetectionOptions {
+        if (maxDimension != 0 && maxDimension < 24) {
+            throw new IllegalArgumentException("maxDimension must be 0 or at least 24 (the cascade window size)");
+        }
+        if (!(scaleFactor > 1)) {
+            throw new IllegalArgumentException("scaleFactor must be greater than 1");
+        }
+        if (minNeighbors < 0) {
+            throw new IllegalArgumentException("minNeighbors must not be negative");
+        }
+        if (minSize < 0) {
+            throw new IllegalArgumentException("minSize must not be negative");
+        }
+    }
+
+    public static FaceDetectionOptions from(Map<String, String> parameters) {
+        if (parameters == null) {
+            return DEFAULT;
+        }
+        return new FaceDetectionOptions(
+                QueryParameters.parseInt(parameters, "maxDimension", DEFAULT.maxDimension),
+                QueryParameters.parseDouble(parameters, "scaleFactor", DEFAULT.scaleFactor),
+                QueryParameters.parseInt(parameters, "minNeighbors", DEFAULT.minNeighbors),
+                QueryParameters.parseInt(parameters, "minSize", DEFAULT.minSize));
+    }
+
+    /**
+     * The scale to detect at for an image of the given size, at most 1.
+     */
+    public double detectionScale(int width, int height) {
+        int longestSide = Math.max(width, height);
+        if (maxDimension == 0 || longestSide <= maxDimension) {
+            return 1;
+        }
+        return (double) maxDimension / longestSide;
+    }
+
+    /**
+     * The largest JPEG decode reduction (1, 2, 4 or 8) that still leaves at least maxDimension pixels on the longest side.
+     */
+    public int decodeReduction(int width, int height) {
+        return ImageHeader.decodeReduction(width, height, maxDimension);
+    }
+}
@@ -0,0 +1,125 @@
+package com.mycodefu;
+
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Map;
+
+/**
+ * Outlines faces found with a Haar cascade, tuned with the {@link FaceDetectionOptions} parameters.
+ */
+public final class FaceDetectionProcessor implements Processor {
+    @Override
+    public String name() {
+        return "FaceDetection";
+    }
+
+    @Override
+    public Output output() {
+        return Output.PHOTOGRAPHIC;
+    }
+
+    @Override
+    public boolean mutatesInput() {
+        return true;
+    }
+
+    @Override
+    public Mat render(MatScope scope, Mat image, Map<String, String> parameters) {
+        return processFaceDetection(scope, image, FaceDetectionOptions.from(parameters));
+    }
+
+    @Override
+    public boolean hasDetections() {
+        return true;
+    }
+
+    // Nothing is drawn, so detection only needs a grayscale image at the size the cascade runs at
+    @Override
+    public Input detectionInput() {
+        return Input.GRAYSCALE;
+    }
+
+    @Override
+    public int detectionMaxDimension(Map<String, String> parameters) {
+        return FaceDetectionOptions.from(parameters).maxDimension();
+    }
+
+    @Override
+    public Detections detect(MatScope scope, Mat image, Size originalSize, Map<String, String> parameters) {
+        Rect[] faces = detectFaces(scope, image, FaceDetectionOptions.from(parameters), originalSize.width / image.cols());
+        return json -> {
+            json.name("faces").beginArray();
+            for (Rect face : faces) {
+                json.beginObject()
+                        .name("x").value(face.x)
+                        .name("y").value(face.y)
+                        .name("width").value(face.width)
+                        .name("height").value(face.height)
+                        .endObject();
+            }
+            json.endArray();
+        };
+    }
+
+    /**
+     * Detect faces in an image using a Haar Cascade Classifier.
+     * Ref: https://docs.opencv.org/4.9.0/dc/d88/tutorial_traincascade.html
+     * <p>
+     * Detection runs on an equalized grayscale copy of the image downscaled to the options' maxDimension,
+     * and the rectangles are mapped back to the original image.
+     *
+     * @param image           a colour or grayscale image
+     * @param scaleToOriginal how many original image pixels each pixel of this image covers, when it was decoded reduced
+     */
+    static Rect[] detectFaces(MatScope scope, Mat image, FaceDetectionOptions options, double scaleToOriginal) {
+        Mat gray = image;
+        if (image.channels() != 1) {
+            gray = scope.borrow(image.rows(), image.cols(), CvType.CV_8UC1);
+            Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
+        }
+
+        double scale = options.detectionScale(gray.cols(), gray.rows());
+        Mat small = gray;
+        if (scale < 1) {
+            Size smallSize = new Size(Math.max(1, Math.round(gray.cols() * scale)), Math.max(1, Math.round(gray.rows() * scale)));
+            small = scope.borrow((int) smallSize.height, (int) smallSize.width, CvType.CV_8UC1);
+            Imgproc.resize(gray, small, smallSize, 0, 0, Imgproc.INTER_AREA);
+        }
+        Mat equalized = scope.borrow(small.rows(), small.cols(), CvType.CV_8UC1);
+        Imgproc.equalizeHist(small, equalized);
+
+        // minSize is in original pixels, so scale it down to the image the cascade sees
+        double toOriginal = scaleToOriginal / scale;
+        double minSize = Math.max(1, Math.floor(options.minSize() / toOriginal));
+
+        MatOfRect faceDetections = scope.track(new MatOfRect());
+        RequestMetrics metrics = RequestMetrics.current();
+        long start = metrics.begin();
+        try (ClassifierRegistry.Lease faceCascade = ClassifierRegistry.acquire(ClassifierRegistry.FRONTAL_FACE)) {
+            // Only slow when the pool is empty and another classifier has to be loaded
+            metrics.end(RequestMetrics.Stage.CLASSIFIER, start);
+            faceCascade.classifier().detectMultiScale(equalized, faceDetections, options.scaleFactor(), options.minNeighbors(),
+                    0, new Size(minSize, minSize), new Size());
+        }
+
+        Rect[] faces = faceDetections.toArray();
+        for (Rect face : faces) {
+            face.x = (int) Math.round(face.x * toOriginal);
+            face.y = (int) Math.round(face.y * toOriginal);
+            face.width = (int) Math.round(face.width * toOriginal);
+            face.height = (int) Math.round(face.height * toOriginal);
+        }
+        return faces;
+    }
+
+    private static Mat processFaceDetection(MatScope scope, Mat image, FaceDetectionOptions options) {
+        int thickness = 3;
+        Scalar magenta = new Scalar(255, 0, 255);
+        for (Rect rect : detectFaces(scope, image, options, 1)) {
+            Imgproc.rectangle(image, new Point(rect.x, rect.y), new Point(rect.x + rect.width, rect.y + rect.height), magenta, thickness);
+        }
+
+        return image;
+    }
+}
@@ -0,0 +1,175 @@
+package com.mycodefu;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits a stream of back to back JPEG images into frames, as sent for Motion JPEG video or as the parts of a
+ * multipart/x-mixed-replace stream. Frames are found from the JPEG markers themselves, so anything between
+ * frames, such as multipart boundaries and part headers, is skipped without parsing it.
+ */
+final class FrameReader {
+    private static final int START_OF_IMAGE = 0xD8;
+    private static final int END_OF_IMAGE = 0xD9;
+    private static final int START_OF_SCAN = 0xDA;
+    private static final int FIRST_RESTART = 0xD0;
+    private static final int LAST_RESTART = 0xD7;
+    private static final int TEMPORARY = 0x01;
+
+    private final InputStream input;
+    private final int maxFrameBytes;
+    private final byte[] chunk = new byte[64 * 1024];
+    private int position;
+    private int limit;
+
+    FrameReader(InputStream input, int maxFrameBytes) {
+        this.input = input;
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    /**
+     * Read the next frame into the buffer, replacing what it held, so one buffer serves every frame.
+     *
+     * @return false at the end of the stream
+     * @throws IllegalArgumentException if the stream ends part way through a frame or a frame is too large
+     */
+    boolean next(DirectBuffer frame) throws IOException {
+        int previous = -1;
+        int current;
+        while ((current = read()) != -1 && !(previous == 0xFF && current == START_OF_IMAGE)) {
+            previous = current;
+        }
+        if (current == -1) {
+            return false;
+        }
+
+        frame.clear();
+        putMarker(frame, START_OF_IMAGE);
+        int marker = nextMarker(frame);
+        while (marker != END_OF_IMAGE) {
+            if (marker == TEMPORARY || (marker >= FIRST_RESTART && marker <= LAST_RESTART)) {
+                // Markers without a segment
+                marker = nextMarker(frame);
+            } else if (marker == START_OF_SCAN) {
+                copySegment(frame);
+                marker = copyScan(frame);
+            } else {
+                copySegment(frame);
+                marker = nextMarker(frame);
+            }
+        }
+        return true;
+    }
+
+    // Markers may be preceded by any number of 0xFF fill bytes, which are dropped
+    private int nextMarker(DirectBuffer frame) throws IOException {
+        int current = readInFrame();
+        if (current != 0xFF) {
+            throw new IllegalArgumentException("Expected a JPEG marker in the frame");
+        }
+        while (current == 0xFF) {
+            current = readInFrame();
+        }
+        putMarker(frame, current);
+        return current;
+    }
+
+    // A segment is a two byte big endian length, which counts itself, followed by its data
+    private void copySegment(DirectBuffer frame) throws IOException {
+        int high = readInFrame();
+        int low = readInFrame();
+        put(frame, (byte) high);
+        put(frame, (byte) low);
+        int remaining = ((high << 8) | low) - 2;
+        while (remaining > 0) {
+            fill();
+            int count = Math.min(remaining, limit - position);
+            put(frame, chunk, position, count);
+            position += count;
+            remaining -= count;
+        }
+    }
+
+    /**
+     * Copy entropy coded scan data up to the next marker, which is returned. 0xFF in the data is followed
+     * by a stuffed zero, and restart markers are part of the scan.
+     */
+    private int copyScan(DirectBuffer frame) throws IOException {
+        while (true) {
+            fill();
+            int start = position;
+            while (position < limit && chunk[position] != (byte) 0xFF) {
+                position++;
+            }
+            put(frame, chunk, start, position - start);
+            if (position == limit) {
+                continue;
+            }
+
+            position++;
+            int next = readInFrame();
+            while (next == 0xFF) {
+                next = readInFrame();
+            }
+            putMarker(frame, next);
+            if (next != 0 && (next < FIRST_RESTART || next > LAST_RESTART)) {
+                return next;
+            }
+        }
+    }
+
+    private void putMarker(DirectBuffer frame, int marker) {
+        put(frame, (byte) 0xFF);
+        put(frame, (byte) marker);
+    }
+
+    private void put(DirectBuffer frame, byte b) {
+        checkSize(frame, 1);
+        frame.put(b);
+    }
+
+    private void put(DirectBuffer frame, byte[] bytes, int offset, int length) {
+        checkSize(frame, length);
+        frame.put(bytes, offset, length);
+    }
+
+    private void checkSize(DirectBuffer frame, int additional) {
+        if (frame.size() + (long) additional > maxFrameBytes) {
+            throw new IllegalArgumentException("Frame is larger than " + maxFrameBytes + " bytes");
+        }
+    }
+
+    private int readInFrame() throws IOException {
+        int b = read();
+        if (b == -1) {
+            throw new IllegalArgumentException("The stream ended part way through a frame");
+        }
+        return b;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !refill()) {
+            return -1;
+        }
+        return chunk[position++] & 0xff;
+    }
+
+    private void fill() throws IOException {
+        if (position == limit && !refill()) {
+            throw new IllegalArgumentException("The stream ended part way through a frame");
+        }
+    }
+
+    private boolean refill() throws IOException {
+        int read;
+        do {
+            read = input.read(chunk);
+        } while (read == 0);
+        if (read == -1) {
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+}
@@ -0,0 +1,31 @@
+package com.mycodefu;
+
+import org.opencv.core.Mat;
+
+import java.util.Map;
+
+/**
+ * Converts the image to grayscale. The pipeline decodes JPEGs straight to grayscale for it and converts anything else
+ * before it, so there is nothing left to do.
+ */
+public final class GrayscaleProcessor implements Processor {
+    @Override
+    public String name() {
+        return "Grayscale";
+    }
+
+    @Override
+    public Input input() {
+        return Input.GRAYSCALE;
+    }
+
+    @Override
+    public Output output() {
+        return Output.LOSSLESS;
+    }
+
+    @Override
+    public Mat render(MatScope scope, Mat image, Map<String, String> parameters) {
+        return image;
+    }
+}
@@ -0,0 +1,56 @@
+package com.mycodefu;
+
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Map;
+
+/**
+ * Shows the blue, green and red channels of the image side by side as grayscale panels.
+ */
+public final class GreenBlueRedSplitProcessor implements Processor {
+    @Override
+    public String name() {
+        return "GreenBlueRedSplit";
+    }
+
+    @Override
+    public Output output() {
+        return Output.LOSSLESS;
+    }
+
+    /**
+     * OpenCV splits the image into channels in BGR order.
+     * This method creates a new image with the blue, green, and red channels side by side.
+     */
+    @Override
+    public Mat render(MatScope scope, Mat image, Map<String, String> parameters) {
+        int rows = image.rows();
+        int cols = image.cols();
+
+        // Create a combined image 3x as wide and extract each channel straight into its place side by side (grayscale)
+        Mat combinedImage = scope.borrow(rows, cols * 3, CvType.CV_8UC1);
+        TiledExecutor.SHARED.apply(scope, image, combinedImage, (imageBand, combinedBand) -> {
+            int bandRows = imageBand.rows();
+            for (int channel = 0; channel < 3; channel++) {
+                Mat roi = scope.track(combinedBand.submat(new Rect(cols * channel, 0, cols, bandRows)));
+                Core.extractChannel(imageBand, roi, channel);
+            }
+        });
+
+        // Add text labels to the top left of each color channel
+        Scalar color = new Scalar(255, 255, 255); // White color for text
+        int fontFace = Imgproc.FONT_HERSHEY_TRIPLEX;
+        double fontScale = 1.0;
+        int thickness = 2;
+        Point org1 = new Point(10, 30);
+        Point org2 = new Point(cols + 10, 30);
+        Point org3 = new Point(cols * 2 + 10, 30);
+
+        Imgproc.putText(combinedImage, "Blue", org1, fontFace, fontScale, color, thickness);
+        Imgproc.putText(combinedImage, "Green", org2, fontFace, fontScale, color, thickness);
+        Imgproc.putText(combinedImage, "Red", org3, fontFace, fontScale, color, thickness);
+
+        return combinedImage;
+    }
+}
@@ -0,0 +1,119 @@
+package com.mycodefu;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the dimensions of an encoded PNG or JPEG image from its header, without decoding it.
+ * This is cheap enough to size work before any native memory is committed to a request.
+ */
+public final class ImageHeader {
+    private ImageHeader() {
+    }
+
+    @FunctionalInterface
+    private interface ByteSource {
+        void read(long offset, byte[] bytes);
+    }
+
+    /**
+     * @param encoded the encoded image as a continuous single row of bytes
+     * @return the width and height, or null if the format is not recognised
+     */
+    public static Size dimensions(Mat encoded) {
+        return dimensions(encoded.total(), (offset, bytes) -> encoded.get(0, (int) offset, bytes));
+    }
+
+    /**
+     * @param encoded the encoded image from its position to its limit
+     * @return the width and height, or null if the format is not recognised
+     */
+    public static Size dimensions(ByteBuffer encoded) {
+        int position = encoded.position();
+        return dimensions(encoded.remaining(), (offset, bytes) -> encoded.get(position + (int) offset, bytes));
+    }
+
+    /**
+     * Whether the encoded image starts with the JPEG start of image marker.
+     *
+     * @param encoded the encoded image as a continuous single row of bytes
+     */
+    public static boolean isJpeg(Mat encoded) {
+        byte[] marker = read((offset, bytes) -> encoded.get(0, (int) offset, bytes), encoded.total(), 0, 2);
+        return marker != null && (marker[0] & 0xff) == 0xff && (marker[1] & 0xff) == 0xd8;
+    }
+
+    /**
+     * The largest JPEG decode reduction (1, 2, 4 or 8) that still leaves at least maxDimension pixels on the longest side,
+     * or 1 when maxDimension is 0 for full resolution.
+     */
+    public static int decodeReduction(int width, int height, int maxDimension) {
+        int longestSide = Math.max(width, height);
+        if (maxDimension == 0) {
+            return 1;
+        }
+        for (int reduction = 8; reduction > 1; reduction /= 2) {
+            if (longestSide / reduction >= maxDimension) {
+                return reduction;
+            }
+        }
+        return 1;
+    }
+
+    private static Size dimensions(long length, ByteSource encoded) {
+        byte[] signature = read(encoded, length, 0, 24);
+        if (signature == null) {
+            return null;
+        }
+        // PNG: the 8 byte signature, then the IHDR chunk with the big-endian width and height
+        if ((signature[0] & 0xff) == 0x89 && signature[1] == 'P' && signature[2] == 'N' && signature[3] == 'G'
+                && signature[12] == 'I' && signature[13] == 'H' && signature[14] == 'D' && signature[15] == 'R') {
+            return new Size(int32(signature, 16), int32(signature, 20));
+        }
+        // JPEG: walk the marker segments from the start of image to the first start of frame
+        if ((signature[0] & 0xff) == 0xff && (signature[1] & 0xff) == 0xd8) {
+            long offset = 2;
+            while (offset + 9 <= length) {
+                byte[] segment = read(encoded, length, offset, 9);
+                if ((segment[0] & 0xff) != 0xff) {
+                    return null;
+                }
+                int marker = segment[1] & 0xff;
+                if (marker == 0xff) {
+                    // Fill byte before a marker
+                    offset++;
+                    continue;
+                }
+                boolean startOfFrame = marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc;
+                if (startOfFrame) {
+                    return new Size(int16(segment, 7), int16(segment, 5));
+                }
+                if (marker == 0xda || marker == 0xd9) {
+                    return null;
+                }
+                offset += 2 + int16(segment, 2);
+            }
+        }
+        return null;
+    }
+
+    private static byte[] read(ByteSource encoded, long length, long offset, int count) {
+        if (offset + count > length) {
+            return null;
+        }
+        byte[] bytes = new byte[count];
+        encoded.read(offset, bytes);
+        return bytes;
+    }
+
+    private static int int16(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 8) | (bytes[offset + 1] & 0xff);
+    }
+
+    private static int int32(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16)
+                | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+}
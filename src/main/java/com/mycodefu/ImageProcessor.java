@@ -1,261 +1,399 @@
 package com.mycodefu;
 
-import nu.pattern.OpenCV;
 import org.opencv.core.*;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.objdetect.CascadeClassifier;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 public class ImageProcessor {
     static {
-        OpenCV.loadLocally();
+        NativeLibrary.load();
     }
 
-    public enum Mode {
-        Grayscale,
-        GreenBlueRedSplit,
-        FaceDetection,
-        Mandarin,
+    private static final int WRITE_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * What to do to an image, named by the 'mode' parameter: one {@link Processor}, or several separated by commas,
+     * e.g. "Grayscale,FaceDetection", each working on the previous one's output without encoding in between.
+     */
+    public static final class Mode {
+        public static final Mode Grayscale = valueOf("Grayscale");
+        public static final Mode GreenBlueRedSplit = valueOf("GreenBlueRedSplit");
+        public static final Mode FaceDetection = valueOf("FaceDetection");
+        public static final Mode Mandarin = valueOf("Mandarin");
+        public static final Mode ColorObjects = valueOf("ColorObjects");
+
+        private final String name;
+        private final List<Processor> processors;
+
+        private Mode(List<Processor> processors) {
+            StringJoiner name = new StringJoiner(",");
+            for (Processor processor : processors) {
+                name.add(processor.name());
+            }
+            this.name = name.toString();
+            this.processors = List.copyOf(processors);
+        }
+
+        /**
+         * @throws IllegalArgumentException if a processor of one of the names is not on the classpath
+         */
+        public static Mode valueOf(String name) {
+            List<Processor> processors = new ArrayList<>();
+            for (String step : name.split(",", -1)) {
+                processors.add(Processors.get(step.trim()));
+            }
+            return new Mode(processors);
+        }
+
+        /**
+         * Each processor on the classpath on its own.
+         */
+        public static List<Mode> values() {
+            List<Mode> modes = new ArrayList<>();
+            for (Processor processor : Processors.all()) {
+                modes.add(new Mode(List.of(processor)));
+            }
+            return modes;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public List<Processor> processors() {
+            return processors;
+        }
+
+        /**
+         * The processor whose output is returned.
+         */
+        public Processor last() {
+            return processors.get(processors.size() - 1);
+        }
+
+        /**
+         * What the image needs decoding as for the first processor.
+         */
+        public Processor.Input input() {
+            return processors.get(0).input();
+        }
+
+        /**
+         * Whether the mode detects objects, so can return them as JSON instead of an annotated image.
+         */
+        public boolean hasDetections() {
+            return last().hasDetections();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Mode mode && name.equals(mode.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
     }
 
     public static String processImage(String encodedInputImage, Mode mode) {
-        byte[] imageData = Base64.getDecoder().decode(encodedInputImage);
-        Mat image = Imgcodecs.imdecode(new MatOfByte(imageData), Imgcodecs.IMREAD_COLOR);
-
-        Mat result = switch (mode) {
-            case Grayscale -> processGrayscale(image);
-            case GreenBlueRedSplit -> processGreenBlueRedSplit(image);
-            case FaceDetection -> processFaceDetection(image);
-            case Mandarin -> processMandarin(image);
-        };
+        return processImage(encodedInputImage, mode, OutputFormat.defaultFor(mode));
+    }
 
-        MatOfByte matOfByte = new MatOfByte();
-        Imgcodecs.imencode(".png", result, matOfByte);
-        String encodedImage = Base64.getEncoder().encodeToString(matOfByte.toArray());
-        return encodedImage;
+    public static String processImage(String encodedInputImage, Mode mode, OutputFormat format) {
+        return processImage(encodedInputImage, mode, format, Map.of());
     }
 
-    private static Mat processMandarin(Mat image) {
-        // Convert the image to the HSV color space
-        Mat hsvImage = new Mat();
-        Imgproc.cvtColor(image, hsvImage, Imgproc.COLOR_BGR2HSV);
-
-        // Define a narrow range of orange color in HSV
-        Scalar lowerOrange = new Scalar(8, 150, 100);
-        Scalar upperOrange = new Scalar(18, 255, 255);
-
-        // Threshold the HSV image to get only orange colors
-        Mat mask = new Mat();
-        Core.inRange(hsvImage, lowerOrange, upperOrange, mask);
-
-        // Create a copy of the mask before applying morphology
-        Mat maskBeforeMorphology = mask.clone();
-
-        // Perform morphological operations to remove noise
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(5, 5));
-        Imgproc.morphologyEx(mask, mask, Imgproc.MORPH_OPEN, kernel);
-        Imgproc.morphologyEx(mask, mask, Imgproc.MORPH_CLOSE, kernel);
-
-        // Find contours of the mask
-        List<MatOfPoint> contours = new ArrayList<>();
-        Mat hierarchy = new Mat();
-        Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
-
-        // Find the largest contour (assuming the mandarin is the largest orange object)
-        double maxArea = 0;
-        MatOfPoint largestContour = null;
-        for (MatOfPoint contour : contours) {
-            double area = Imgproc.contourArea(contour);
-            if (area > maxArea) {
-                    maxArea = area;
-                    largestContour = contour;
-            }
+    public static String processImage(String encodedInputImage, Mode mode, OutputFormat format, Map<String, String> parameters) {
+        byte[] imageData = Base64.getDecoder().decode(encodedInputImage);
+        ByteArrayOutputStream encodedImage = new ByteArrayOutputStream();
+        try (OutputStream output = Base64.getEncoder().wrap(encodedImage)) {
+            processImage(imageData, mode, format, parameters, output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        return encodedImage.toString(StandardCharsets.ISO_8859_1);
+    }
 
-        // If a contour is found, draw a circle around it
-        Point center = new Point();
-        if (largestContour != null) {
-            // Find the minimum enclosing circle of the largest contour
-            MatOfPoint2f contour2f = new MatOfPoint2f(largestContour.toArray());
-            float[] radius = new float[1];
-            Imgproc.minEnclosingCircle(contour2f, center, radius);
-
-            // Draw the circle on the original image
-            Scalar green = new Scalar(0, 255, 0);
-            Imgproc.circle(image, center, (int) radius[0], green, 2);
+    /**
+     * @param parameters mode specific options, e.g. the query string parameters of the request
+     */
+    public static void processImage(byte[] imageData, Mode mode, OutputFormat format, Map<String, String> parameters, OutputStream output) throws IOException {
+        try (MatScope scope = new MatScope()) {
+            Mat encodedImage = scope.track(new MatOfByte(imageData));
+            processImage(scope, scope.track(encodedImage.reshape(1, 1)), mode, format, parameters, output);
         }
+    }
 
+    /**
+     * Process an encoded image held in a buffer, writing the encoded result to the output stream.
+     * A direct buffer is wrapped as a Mat without copying, so it must not be modified until this returns.
+     *
+     * @param parameters mode specific options, e.g. the query string parameters of the request
+     */
+    public static void processImage(ByteBuffer imageData, Mode mode, OutputFormat format, Map<String, String> parameters, OutputStream output) throws IOException {
+        try (MatScope scope = new MatScope()) {
+            processImage(scope, encoded(scope, imageData), mode, format, parameters, output);
+        }
+    }
 
+    /**
+     * Decode an encoded image held in a buffer once to an image owned by the scope, to pass to
+     * {@link #processDecoded} for each of several modes. It is decoded straight to grayscale only when every mode
+     * starts from grayscale, and otherwise in colour, with the pipeline converting it for any that need grayscale.
+     */
+    public static Mat decode(MatScope scope, ByteBuffer imageData, Collection<Mode> modes) {
+        boolean gray = modes.stream().allMatch(mode -> mode.input() == Processor.Input.GRAYSCALE);
+        Mat encodedImage = encoded(scope, imageData);
+        return decode(scope, encodedImage, decodeFlags(encodedImage, gray ? Processor.Input.GRAYSCALE : Processor.Input.COLOR));
+    }
 
-        // Draw the legend at the top left of the image
-        int legendWidth = 100;
-        int legendHeight = 10;
-        int legendX = 5;
-        int legendY = 5;
+    /**
+     * Process an image that has already been decoded, writing the encoded result to the output stream.
+     * Processors that draw on their input work on a copy, so the same image can be shared by several modes,
+     * including from several threads at once.
+     *
+     * @param image      a BGR or grayscale image, which is not modified
+     * @param parameters mode specific options, e.g. the query string parameters of the request
+     */
+    public static void processDecoded(MatScope scope, Mat image, Mode mode, OutputFormat format,
+                                      Map<String, String> parameters, OutputStream output) throws IOException {
+        if (parameters == null) {
+            parameters = Map.of();
+        }
+        if (format.codec() == OutputFormat.Codec.JSON) {
+            writeDetections(detect(scope, image, mode, parameters, true), output);
+            return;
+        }
+        encode(scope, render(scope, image, mode.processors(), parameters, true), format, output);
+    }
 
-        // Create a new Mat for the legend
-        Mat legend = new Mat(legendHeight, legendWidth, CvType.CV_8UC3, new Scalar(255, 255, 255));
+    // Wrap a direct buffer as a Mat without copying, or copy a heap buffer into one
+    static Mat encoded(MatScope scope, ByteBuffer imageData) {
+        if (imageData.isDirect()) {
+            return scope.wrap(imageData.slice());
+        }
+        Mat encodedImage = scope.mat(1, imageData.remaining(), CvType.CV_8UC1);
+        encodedImage.put(0, 0, imageData.array(), imageData.arrayOffset() + imageData.position(), imageData.remaining());
+        return encodedImage;
+    }
 
-        // Fill the legend with the range of orange colors
-        for (int i = 0; i < legendWidth; i++) {
-            double hue = lowerOrange.val[0] + (upperOrange.val[0] - lowerOrange.val[0]) * i / legendWidth;
-            Scalar color = new Scalar(hue, 255, 255);
-            Imgproc.line(legend, new Point(i, 0), new Point(i, legendHeight), color, 1);
+    // Every Mat created while processing is released when the scope closes
+    private static void processImage(MatScope scope, Mat encodedImage, Mode mode, OutputFormat format,
+                                     Map<String, String> parameters, OutputStream output) throws IOException {
+        if (parameters == null) {
+            parameters = Map.of();
+        }
+        if (format.codec() == OutputFormat.Codec.JSON) {
+            writeDetections(scope, encodedImage, mode, parameters, output);
+            return;
         }
 
-        // Convert the legend from HSV to BGR
-        Imgproc.cvtColor(legend, legend, Imgproc.COLOR_HSV2BGR);
+        // The image was decoded for this call alone, so processors may draw on it directly
+        RequestMetrics metrics = RequestMetrics.current();
+        long start = metrics.begin();
+        Mat image = decode(scope, encodedImage, decodeFlags(encodedImage, mode.input()));
+        metrics.end(RequestMetrics.Stage.DECODE, start);
+        metrics.dimensions(image.cols(), image.rows());
 
-        // Add "Min" and "Max" text to the legend
-        if (largestContour != null) {
-            Scalar white = new Scalar(230, 230, 200);
-            String text = "x: " + (int) center.x + ", y: " + (int) center.y;
-            Imgproc.putText(legend, text, new Point(5, 8), Imgproc.FONT_HERSHEY_SIMPLEX, 0.3, white, 1, Imgproc.LINE_AA);
-        }
-        // Overlay the legend on the original image
-        Mat legendAreaOfImage = image.submat(new Rect(legendX, legendY, legendWidth, legendHeight));
-        legend.copyTo(legendAreaOfImage);
-
-
-
-        // Create a 4-column wide image
-        Mat result = new Mat(image.rows(), image.cols() * 4, CvType.CV_8UC3);
-
-        // Place the current image on the left
-        Mat firstPanel = result.submat(new Rect(0, 0, image.cols(), image.rows()));
-        image.copyTo(firstPanel);
-
-        // Place the mask before morphology in the second panel
-        Mat maskBeforeMorphologyColorized = new Mat();
-        Imgproc.cvtColor(maskBeforeMorphology, maskBeforeMorphologyColorized, Imgproc.COLOR_GRAY2BGR);
-        Mat secondPanel = result.submat(new Rect(image.cols(), 0, image.cols(), image.rows()));
-        maskBeforeMorphologyColorized.copyTo(secondPanel);
-
-        // Add title "Mask Before Morphology" to the second panel
-        Scalar white = new Scalar(230, 230, 200);
-        Imgproc.putText(result, "Orange Mask (Before Morphology)", new Point(image.cols() + 5, 15),
-                Imgproc.FONT_HERSHEY_SIMPLEX, 0.4, white, 1, Imgproc.LINE_AA);
-
-        // Place the orange mask in the third panel
-        Mat maskColorized = new Mat();
-        Imgproc.cvtColor(mask, maskColorized, Imgproc.COLOR_GRAY2BGR);
-        Mat thirdPanel = result.submat(new Rect(image.cols() * 2, 0, image.cols(), image.rows()));
-        maskColorized.copyTo(thirdPanel);
-
-        // Add title "Orange Mask" to the third panel
-        Imgproc.putText(result, "Orange Mask", new Point(image.cols() * 2 + 5, 15),
-                Imgproc.FONT_HERSHEY_SIMPLEX, 0.4, white, 1, Imgproc.LINE_AA);
-
-        // Place the contours detected on the right (fourth panel)
-        Mat contoursImage = Mat.zeros(image.size(), CvType.CV_8UC3);
-        Scalar orange = new Scalar(0, 165, 255);
-        for (MatOfPoint contour : contours) {
-            if (contour == largestContour) {
-                Imgproc.drawContours(contoursImage, Collections.singletonList(contour), -1, orange, 2);
-            } else {
-                Imgproc.drawContours(contoursImage, Collections.singletonList(contour), -1, white, 2);
+        start = metrics.begin();
+        Mat result = render(scope, image, mode.processors(), parameters, false);
+        metrics.end(RequestMetrics.Stage.PROCESS, start);
+
+        start = metrics.begin();
+        encode(scope, result, format, output);
+        metrics.end(RequestMetrics.Stage.ENCODE, start);
+    }
+
+    /**
+     * Run a mode over a decoded image, returning the image to encode. Processors that draw may modify the input.
+     */
+    static Mat render(MatScope scope, Mat image, Mode mode, Map<String, String> parameters) {
+        return render(scope, image, mode.processors(), parameters, false);
+    }
+
+    /**
+     * Run each processor over the previous one's output, converting between colour and grayscale as each needs.
+     *
+     * @param shared whether the image must be left as it is, so is copied before a processor that draws on it
+     */
+    private static Mat render(MatScope scope, Mat image, List<Processor> processors, Map<String, String> parameters, boolean shared) {
+        Mat current = image;
+        for (Processor processor : processors) {
+            Mat input = convert(scope, current, processor.input());
+            if (shared && input == image && processor.mutatesInput()) {
+                input = scope.borrow(image.rows(), image.cols(), image.type());
+                image.copyTo(input);
             }
+            current = processor.render(scope, input, parameters);
+        }
+        return current;
+    }
+
+    // Convert to BGR or grayscale for the next processor, only when the image isn't already what it needs
+    private static Mat convert(MatScope scope, Mat image, Processor.Input input) {
+        boolean gray = image.channels() == 1;
+        if (gray == (input == Processor.Input.GRAYSCALE)) {
+            return image;
         }
-        Mat fourthPanel = result.submat(new Rect(image.cols() * 3, 0, image.cols(), image.rows()));
-        contoursImage.copyTo(fourthPanel);
+        Mat converted = scope.borrow(image.rows(), image.cols(), gray ? CvType.CV_8UC3 : CvType.CV_8UC1);
+        int code = gray ? Imgproc.COLOR_GRAY2BGR : Imgproc.COLOR_BGR2GRAY;
+        TiledExecutor.SHARED.apply(scope, image, converted, (srcBand, dstBand) -> Imgproc.cvtColor(srcBand, dstBand, code));
+        return converted;
+    }
+
+    private static void encode(MatScope scope, Mat result, OutputFormat format, OutputStream output) throws IOException {
+        MatOfByte matOfByte = scope.track(new MatOfByte());
+        Imgcodecs.imencode(format.extension(), result, matOfByte, scope.track(format.parameters()));
+        // Every working Mat of the request is still alive here
+        RequestMetrics.current().sampleNativeBytes(scope);
+        write(matOfByte, output);
+    }
 
-        // Add title "Contours Found" to the fourth panel
-        Imgproc.putText(result, "Contours Found", new Point(image.cols() * 3 + 5, 15),
-                Imgproc.FONT_HERSHEY_SIMPLEX, 0.4, white, 1, Imgproc.LINE_AA);
+    static Mat decode(MatScope scope, Mat encodedImage, int flags) {
+        Mat image = scope.track(Imgcodecs.imdecode(encodedImage, flags));
+        if (image.empty()) {
+            throw new IllegalArgumentException("Could not decode the input image");
+        }
+        return image;
+    }
 
+    /**
+     * Decode JPEGs straight to grayscale for processors that only need that, as the luma they store is the grayscale
+     * image and the colour conversion is skipped. Other formats' decoders convert to gray with their own rounding,
+     * so those are decoded in colour and converted like any other image, keeping results the same however decoded.
+     */
+    private static int decodeFlags(Mat encodedImage, Processor.Input input) {
+        return decodeFlags(input == Processor.Input.GRAYSCALE && ImageHeader.isJpeg(encodedImage)
+                ? Processor.Input.GRAYSCALE : Processor.Input.COLOR, 1);
+    }
 
-        return result;
+    // JPEGs are decoded reduced by scaling the DCT, which is far quicker than decoding in full and resizing
+    private static int decodeFlags(Processor.Input input, int reduction) {
+        boolean gray = input == Processor.Input.GRAYSCALE;
+        return switch (reduction) {
+            case 8 -> gray ? Imgcodecs.IMREAD_REDUCED_GRAYSCALE_8 : Imgcodecs.IMREAD_REDUCED_COLOR_8;
+            case 4 -> gray ? Imgcodecs.IMREAD_REDUCED_GRAYSCALE_4 : Imgcodecs.IMREAD_REDUCED_COLOR_4;
+            case 2 -> gray ? Imgcodecs.IMREAD_REDUCED_GRAYSCALE_2 : Imgcodecs.IMREAD_REDUCED_COLOR_2;
+            default -> gray ? Imgcodecs.IMREAD_GRAYSCALE : Imgcodecs.IMREAD_COLOR;
+        };
     }
 
     /**
-     * Detect faces in an image using a Haar Cascade Classifier.
-     * Ref: https://docs.opencv.org/4.9.0/dc/d88/tutorial_traincascade.html
+     * What a mode's last processor found in an image, without any drawing.
+     *
+     * @param size the size of the original image, which positions are in
      */
-    private static Mat processFaceDetection(Mat image) {
-        CascadeClassifier faceCascade = getFaceClassifier();
+    record DetectionResult(Mode mode, Size size, Processor.Detections found) {
+    }
 
-        MatOfRect faceDetections = new MatOfRect();
-        faceCascade.detectMultiScale(image, faceDetections);
+    /**
+     * Write just the detections as a small JSON document, skipping all drawing, panels and image encoding.
+     */
+    private static void writeDetections(MatScope scope, Mat encodedImage, Mode mode, Map<String, String> parameters, OutputStream output) throws IOException {
+        RequestMetrics metrics = RequestMetrics.current();
+        long start = metrics.begin();
+        DetectionResult detections = detect(scope, encodedImage, mode, parameters);
+        // Decoding is folded into detection here, as the two are interleaved for the reduced decode
+        metrics.end(RequestMetrics.Stage.PROCESS, start);
+        metrics.dimensions((int) detections.size().width, (int) detections.size().height);
+        metrics.sampleNativeBytes(scope);
+
+        start = metrics.begin();
+        writeDetections(detections, output);
+        metrics.end(RequestMetrics.Stage.ENCODE, start);
+    }
 
-        int thickness = 3;
-        Scalar magenta = new Scalar(255, 0, 255);
-        for (Rect rect : faceDetections.toArray()) {
-            Imgproc.rectangle(image, new Point(rect.x, rect.y), new Point(rect.x + rect.width, rect.y + rect.height), magenta, thickness);
+    /**
+     * Decode an encoded image just as far as the mode needs and detect in it.
+     */
+    static DetectionResult detect(MatScope scope, Mat encodedImage, Mode mode, Map<String, String> parameters) {
+        Processor detector = mode.last();
+        if (!detector.hasDetections()) {
+            throw new IllegalArgumentException("JSON output is not available for mode " + mode);
+        }
+        if (mode.processors().size() > 1) {
+            return detect(scope, decode(scope, encodedImage, decodeFlags(encodedImage, mode.input())), mode, parameters, false);
         }
 
-        return image;
+        // Nothing is drawn, so decode straight to what detection needs, reduced when the header gives the size
+        Size size = ImageHeader.dimensions(encodedImage);
+        int reduction = size == null ? 1
+                : ImageHeader.decodeReduction((int) size.width, (int) size.height, detector.detectionMaxDimension(parameters));
+        Mat image = decode(scope, encodedImage, decodeFlags(detector.detectionInput(), reduction));
+        if (size == null) {
+            size = image.size();
+        }
+        return new DetectionResult(mode, size, detector.detect(scope, image, size, parameters));
     }
 
-    private static CascadeClassifier FACE_CLASSIFIER = null;
-    private static CascadeClassifier getFaceClassifier() {
-        if (FACE_CLASSIFIER == null) {
-            String tempPath = System.getProperty("java.io.tmpdir");
-            Path faceCascadePath = Path.of(tempPath, "haarcascade_frontalface_default.xml");
-            if (!faceCascadePath.toFile().exists()) {
-                //Copy the file to the temp path
-                try (InputStream is = ImageProcessor.class.getResourceAsStream("/haarcascade_frontalface_default.xml")) {
-                    Files.copy(is, faceCascadePath);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-            CascadeClassifier faceCascade = new CascadeClassifier();
-            faceCascade.load(faceCascadePath.toString());
-            FACE_CLASSIFIER = faceCascade;
+    // Run the processors before the last as for rendering, then detect in their output
+    private static DetectionResult detect(MatScope scope, Mat image, Mode mode, Map<String, String> parameters, boolean shared) {
+        Processor detector = mode.last();
+        if (!detector.hasDetections()) {
+            throw new IllegalArgumentException("JSON output is not available for mode " + mode);
         }
-        return FACE_CLASSIFIER;
+        List<Processor> processors = mode.processors();
+        Mat input = render(scope, image, processors.subList(0, processors.size() - 1), parameters, shared);
+        input = convert(scope, input, detector.detectionInput());
+        return new DetectionResult(mode, input.size(), detector.detect(scope, input, input.size(), parameters));
+    }
+
+    private static void writeDetections(DetectionResult detections, OutputStream output) throws IOException {
+        BufferedOutputStream bufferedOutput = new BufferedOutputStream(output);
+        JsonWriter json = new JsonWriter(bufferedOutput);
+        json.beginObject();
+        writeDetectionFields(json, detections);
+        json.endObject();
+        bufferedOutput.flush();
+    }
+
+    /**
+     * Write the mode, size and detections as fields of an object already begun, so callers can add their own.
+     */
+    static void writeDetectionFields(JsonWriter json, DetectionResult detections) throws IOException {
+        json.name("mode").value(detections.mode().name())
+                .name("width").value((long) detections.size().width)
+                .name("height").value((long) detections.size().height);
+        detections.found().write(json);
     }
 
     /**
-     * OpenCV splits the image into channels in BGR order.
-     * This method creates a new image with the blue, green, and red channels side by side.
+     * Copy an encoded image out of native memory to the stream in chunks, rather than as one big array.
      */
-    private static Mat processGreenBlueRedSplit(Mat image) {
-        int rows = image.rows();
-        int cols = image.cols();
-
-        // Get a Mat for each channel
-        Mat blueChannel = new Mat();
-        Core.extractChannel(image, blueChannel, 0);
-        Mat greenChannel = new Mat();
-        Core.extractChannel(image, greenChannel, 1);
-        Mat redChannel = new Mat();
-        Core.extractChannel(image, redChannel, 2);
-
-        // Create a combined image 3x as wide copy each channel side by side (grayscale)
-        Mat combinedImage = new Mat(rows, cols * 3, CvType.CV_8UC1);
-        Mat roi1 = combinedImage.submat(new Rect(0, 0, cols, rows));
-        blueChannel.copyTo(roi1);
-        Mat roi2 = combinedImage.submat(new Rect(cols, 0, cols, rows));
-        greenChannel.copyTo(roi2);
-        Mat roi3 = combinedImage.submat(new Rect(cols * 2, 0, cols, rows));
-        redChannel.copyTo(roi3);
-
-        // Add text labels to the top left of each color channel
-        Scalar color = new Scalar(255, 255, 255); // White color for text
-        int fontFace = Imgproc.FONT_HERSHEY_TRIPLEX;
-        double fontScale = 1.0;
-        int thickness = 2;
-        Point org1 = new Point(10, 30);
-        Point org2 = new Point(cols + 10, 30);
-        Point org3 = new Point(cols * 2 + 10, 30);
-
-        Imgproc.putText(combinedImage, "Blue", org1, fontFace, fontScale, color, thickness);
-        Imgproc.putText(combinedImage, "Green", org2, fontFace, fontScale, color, thickness);
-        Imgproc.putText(combinedImage, "Red", org3, fontFace, fontScale, color, thickness);
-
-        return combinedImage;
+    private static void write(MatOfByte encoded, OutputStream output) throws IOException {
+        int length = (int) encoded.total();
+        byte[] chunk = new byte[Math.min(length, WRITE_CHUNK_SIZE)];
+        for (int offset = 0; offset < length; offset += chunk.length) {
+            if (length - offset < chunk.length) {
+                chunk = new byte[length - offset];
+            }
+            encoded.get(offset, 0, chunk);
+            output.write(chunk);
+        }
     }
 
-    private static Mat processGrayscale(Mat image) {
-        Mat grayImage = new Mat();
-        Imgproc.cvtColor(image, grayImage, Imgproc.COLOR_BGR2GRAY);
-        return grayImage;
+    /**
+     * Opening and closing are an erode then a dilate, each reading kernel radius rows either side,
+     * so tiled bands need twice the radius of halo to match the whole-image result.
+     */
+    static void morphology(MatScope scope, Mat src, Mat dst, int operation, Mat kernel) {
+        int halo = 2 * (kernel.rows() / 2);
+        TiledExecutor.SHARED.apply(scope, src, dst, halo,
+                (srcBand, dstBand) -> Imgproc.morphologyEx(srcBand, dstBand, operation, kernel));
     }
 }
@@ -0,0 +1,97 @@
+package com.mycodefu;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import org.opencv.core.*;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Runs a synthetic image through every mode in the init phase, so class loading, lazily built native state such as
+ * the Mandarin legend and lookup tables, and the interpreter's first passes over the pipeline happen before the first
+ * real request. A snapshot taken after init captures all of it.
+ * <p>
+ * The image goes straight to {@link ImageProcessor}, not through the handler, so it is neither cached nor counted in
+ * the request metrics. Set -Dwarmup.iterations=0 to skip it.
+ */
+public final class InitWarmup {
+    private static final int ITERATIONS = Integer.getInteger("warmup.iterations", 2);
+
+    private InitWarmup() {
+    }
+
+    public static void run() {
+        if (ITERATIONS <= 0) {
+            return;
+        }
+        // JPEG exercises the grayscale and reduced decodes, PNG the colour decode and conversion
+        byte[][] images = {syntheticImage(".jpg"), syntheticImage(".png")};
+        OutputFormat json = new OutputFormat(OutputFormat.Codec.JSON, OutputFormat.DEFAULT_QUALITY);
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (ImageProcessor.Mode mode : ImageProcessor.Mode.values()) {
+                for (byte[] image : images) {
+                    process(image, mode, OutputFormat.defaultFor(mode));
+                    if (mode.hasDetections()) {
+                        process(image, mode, json);
+                    }
+                }
+            }
+        }
+        // Only the synthetic image's size was pooled, so give the memory back rather than keep it for every request
+        MatPool.SHARED.clear();
+    }
+
+    /**
+     * The training run for the AppCDS archive built into the image (see docker/Dockerfile), run with
+     * -XX:ArchiveClassesAtExit. Constructing the handler archives everything init loads, and a request of every mode
+     * through it archives the classes of the request path too.
+     */
+    public static void main(String[] args) {
+        Main main = new Main();
+        String image = Base64.getEncoder().encodeToString(syntheticImage(".jpg"));
+        for (ImageProcessor.Mode mode : ImageProcessor.Mode.values()) {
+            main.handleRequest(event("POST", Map.of("mode", mode.name()), image), null);
+        }
+        main.handleRequest(event("GET", Map.of(), null), null);
+    }
+
+    private static void process(byte[] image, ImageProcessor.Mode mode, OutputFormat format) {
+        try {
+            ImageProcessor.processImage(image, mode, format, Map.of(), OutputStream.nullOutputStream());
+        } catch (IllegalArgumentException e) {
+            // A processor added to the classpath may need parameters the synthetic request doesn't have
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // A grey frame with an orange disc and a dark block, so every mode has something to find and draw
+    private static byte[] syntheticImage(String extension) {
+        try (MatScope scope = new MatScope()) {
+            Mat image = scope.track(new Mat(480, 640, CvType.CV_8UC3, new Scalar(90, 90, 90)));
+            Imgproc.circle(image, new Point(420, 240), 80, new Scalar(0, 128, 255), -1);
+            Imgproc.rectangle(image, new Point(80, 120), new Point(200, 360), new Scalar(30, 30, 30), -1);
+            MatOfByte encoded = scope.track(new MatOfByte());
+            Imgcodecs.imencode(extension, image, encoded);
+            return encoded.toArray();
+        }
+    }
+
+    private static APIGatewayV2HTTPEvent event(String method, Map<String, String> queryStringParameters, String body) {
+        return APIGatewayV2HTTPEvent.builder()
+                .withRequestContext(APIGatewayV2HTTPEvent.RequestContext.builder()
+                        .withHttp(APIGatewayV2HTTPEvent.RequestContext.Http.builder()
+                                .withMethod(method)
+                                .build())
+                        .build())
+                .withQueryStringParameters(queryStringParameters)
+                .withBody(body)
+                .withIsBase64Encoded(body != null)
+                .build();
+    }
+}
@@ -0,0 +1,288 @@
+package com.mycodefu;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A minimal pull parser for JSON, just enough to read Lambda events and request bodies without pulling
+ * a JSON library into the shaded jar. String values can be streamed to a sink rather than materialized,
+ * which is how large Base64 bodies are decoded without building a String.
+ */
+public final class JsonReader {
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    @FunctionalInterface
+    public interface CharSink {
+        void put(char c) throws IOException;
+    }
+
+    private final Reader in;
+    private int peeked = -2;
+    // True when the next string token in an object is a name rather than a value
+    private boolean expectingName;
+    // For each open container, whether it is an object (true) or an array (false)
+    private final Deque<Boolean> inObject = new ArrayDeque<>();
+
+    public JsonReader(Reader in) {
+        this.in = in;
+    }
+
+    public Token peek() throws IOException {
+        int c = nextNonWhitespace();
+        return switch (c) {
+            case '{' -> Token.BEGIN_OBJECT;
+            case '}' -> Token.END_OBJECT;
+            case '[' -> Token.BEGIN_ARRAY;
+            case ']' -> Token.END_ARRAY;
+            case '"' -> expectingName ? Token.NAME : Token.STRING;
+            case 't', 'f' -> Token.BOOLEAN;
+            case 'n' -> Token.NULL;
+            case -1 -> Token.END_DOCUMENT;
+            default -> Token.NUMBER;
+        };
+    }
+
+    public void beginObject() throws IOException {
+        expect('{');
+        inObject.push(true);
+        expectingName = true;
+    }
+
+    public void endObject() throws IOException {
+        expect('}');
+        endContainer();
+    }
+
+    public void beginArray() throws IOException {
+        expect('[');
+        inObject.push(false);
+        expectingName = false;
+    }
+
+    public void endArray() throws IOException {
+        expect(']');
+        endContainer();
+    }
+
+    public boolean hasNext() throws IOException {
+        int c = nextNonWhitespace();
+        return c != '}' && c != ']' && c != -1;
+    }
+
+    public String nextName() throws IOException {
+        if (!expectingName) {
+            throw syntaxError("Expected a value, not a name");
+        }
+        StringBuilder name = new StringBuilder();
+        readString(name::append);
+        expect(':');
+        expectingName = false;
+        return name.toString();
+    }
+
+    public String nextString() throws IOException {
+        StringBuilder value = new StringBuilder();
+        nextString(value::append);
+        return value.toString();
+    }
+
+    /**
+     * Stream the characters of the next string value to the sink, without materializing it.
+     */
+    public void nextString(CharSink sink) throws IOException {
+        readString(sink);
+        endValue();
+    }
+
+    public boolean nextBoolean() throws IOException {
+        String literal = readLiteral();
+        endValue();
+        return switch (literal) {
+            case "true" -> true;
+            case "false" -> false;
+            default -> throw syntaxError("Expected a boolean but was " + literal);
+        };
+    }
+
+    public double nextDouble() throws IOException {
+        String literal = readLiteral();
+        endValue();
+        try {
+            return Double.parseDouble(literal);
+        } catch (NumberFormatException e) {
+            throw syntaxError("Expected a number but was " + literal);
+        }
+    }
+
+    public int nextInt() throws IOException {
+        return (int) nextDouble();
+    }
+
+    public void nextNull() throws IOException {
+        String literal = readLiteral();
+        if (!literal.equals("null")) {
+            throw syntaxError("Expected null but was " + literal);
+        }
+        endValue();
+    }
+
+    public void skipValue() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT -> {
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+            }
+            case BEGIN_ARRAY -> {
+                beginArray();
+                while (hasNext()) {
+                    skipValue();
+                }
+                endArray();
+            }
+            case STRING -> nextString(c -> {
+            });
+            case NAME, END_OBJECT, END_ARRAY, END_DOCUMENT -> throw syntaxError("Expected a value");
+            default -> {
+                readLiteral();
+                endValue();
+            }
+        }
+    }
+
+    /**
+     * Read an object of string (or null) values, e.g. the headers or query string parameters of an event.
+     */
+    public Map<String, String> nextStringMap() throws IOException {
+        Map<String, String> map = new HashMap<>();
+        beginObject();
+        while (hasNext()) {
+            String name = nextName();
+            if (peek() == Token.NULL) {
+                nextNull();
+                map.put(name, null);
+            } else if (peek() == Token.STRING) {
+                map.put(name, nextString());
+            } else {
+                skipValue();
+            }
+        }
+        endObject();
+        return map;
+    }
+
+    private void endContainer() throws IOException {
+        inObject.pop();
+        endValue();
+    }
+
+    // After a value, consume an optional comma and work out whether a name comes next
+    private void endValue() throws IOException {
+        boolean object = !inObject.isEmpty() && inObject.peek();
+        int c = nextNonWhitespace();
+        if (c == ',') {
+            read();
+            expectingName = object;
+        } else {
+            expectingName = false;
+        }
+    }
+
+    private void readString(CharSink sink) throws IOException {
+        expect('"');
+        while (true) {
+            int c = read();
+            switch (c) {
+                case -1 -> throw syntaxError("Unterminated string");
+                case '"' -> {
+                    return;
+                }
+                case '\\' -> sink.put(readEscape());
+                default -> sink.put((char) c);
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = read();
+        return switch (c) {
+            case '"', '\\', '/' -> (char) c;
+            case 'b' -> '\b';
+            case 'f' -> '\f';
+            case 'n' -> '\n';
+            case 'r' -> '\r';
+            case 't' -> '\t';
+            case 'u' -> {
+                char[] hex = new char[4];
+                for (int i = 0; i < 4; i++) {
+                    int h = read();
+                    if (h == -1) {
+                        throw syntaxError("Unterminated escape");
+                    }
+                    hex[i] = (char) h;
+                }
+                yield (char) Integer.parseInt(new String(hex), 16);
+            }
+            default -> throw syntaxError("Invalid escape \\" + (char) c);
+        };
+    }
+
+    private String readLiteral() throws IOException {
+        nextNonWhitespace();
+        StringBuilder literal = new StringBuilder();
+        while (true) {
+            int c = peekChar();
+            if (c == -1 || c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+                break;
+            }
+            literal.append((char) read());
+        }
+        if (literal.isEmpty()) {
+            throw syntaxError("Expected a value");
+        }
+        return literal.toString();
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = nextNonWhitespace();
+        if (c != expected) {
+            throw syntaxError("Expected '" + expected + "' but was " + (c == -1 ? "end of input" : "'" + (char) c + "'"));
+        }
+        read();
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c = peekChar();
+        while (c != -1 && Character.isWhitespace(c)) {
+            read();
+            c = peekChar();
+        }
+        return c;
+    }
+
+    private int peekChar() throws IOException {
+        if (peeked == -2) {
+            peeked = in.read();
+        }
+        return peeked;
+    }
+
+    private int read() throws IOException {
+        int c = peekChar();
+        peeked = -2;
+        return c;
+    }
+
+    private static IOException syntaxError(String message) {
+        return new IOException("Malformed JSON: " + message);
+    }
+}
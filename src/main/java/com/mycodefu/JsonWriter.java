@@ -0,0 +1,182 @@
+package com.mycodefu;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.Map;
+
+/**
+ * A minimal streaming JSON writer, the counterpart to {@link JsonReader}.
+ * Binary values can be streamed straight into a Base64 string with {@link #base64Value()}.
+ */
+public final class JsonWriter {
+    private final OutputStream out;
+    // For each open container, whether a value has been written yet (so the next one needs a comma)
+    private final Deque<Boolean> hasValue = new ArrayDeque<>();
+    private boolean afterName;
+
+    public JsonWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        out.write('{');
+        hasValue.push(false);
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        hasValue.pop();
+        out.write('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        out.write('[');
+        hasValue.push(false);
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        hasValue.pop();
+        out.write(']');
+        return this;
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        beforeValue();
+        writeString(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        writeRaw(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(double value) throws IOException {
+        beforeValue();
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            writeRaw(Long.toString((long) value));
+        } else if (Double.isFinite(value)) {
+            writeRaw(Double.toString(value));
+        } else {
+            writeRaw("null");
+        }
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        writeRaw(Boolean.toString(value));
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        writeRaw("null");
+        return this;
+    }
+
+    public JsonWriter value(Map<String, String> values) throws IOException {
+        beginObject();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            name(entry.getKey()).value(entry.getValue());
+        }
+        return endObject();
+    }
+
+    /**
+     * Write a value that is already serialized JSON, such as a nested document produced by another writer.
+     */
+    public JsonWriter rawValue(byte[] json) throws IOException {
+        beforeValue();
+        out.write(json);
+        return this;
+    }
+
+    /**
+     * Start a string value whose content is the Base64 encoding of the bytes written to the returned stream.
+     * Closing the returned stream finishes the value but leaves the underlying stream open.
+     */
+    public OutputStream base64Value() throws IOException {
+        beforeValue();
+        out.write('"');
+        OutputStream unclosable = new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.write('"');
+            }
+        };
+        return Base64.getEncoder().wrap(unclosable);
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (!hasValue.isEmpty()) {
+            if (hasValue.peek()) {
+                out.write(',');
+            }
+            hasValue.pop();
+            hasValue.push(true);
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        StringBuilder escaped = new StringBuilder(value.length() + 2);
+        escaped.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> escaped.append("\\\"");
+                case '\\' -> escaped.append("\\\\");
+                case '\n' -> escaped.append("\\n");
+                case '\r' -> escaped.append("\\r");
+                case '\t' -> escaped.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        escaped.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        escaped.append(c);
+                    }
+                }
+            }
+        }
+        escaped.append('"');
+        writeRaw(escaped.toString());
+    }
+
+    private void writeRaw(String value) throws IOException {
+        out.write(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -2,9 +2,14 @@ package com.mycodefu;
 
 import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
+import org.opencv.core.Size;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
@@ -12,40 +17,67 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Executors;
 
+/**
+ * Serves the image processor over HTTP, for local development or as a long running service in a container.
+ * Configure it with system properties: server.host (default localhost, use 0.0.0.0 in a container),
+ * server.port (8001) and server.maxRequestBytes (32 MB), plus the limiter.* properties of {@link AdmissionLimiter}.
+ * <p>
+ * Each request runs on its own virtual thread, so slow uploads and downloads hold no platform threads,
+ * while the OpenCV work itself is bounded by the admission limiter. Upload bodies are buffered only once
+ * their bytes have been reserved with the limiter too.
+ */
 public class LocalRunner {
+    private static final String HOST = System.getProperty("server.host", "localhost");
+    private static final int PORT = Integer.getInteger("server.port", 8001);
+    // Bodies are held in one direct buffer, which can't be larger than an int can index
+    private static final long MAX_REQUEST_BYTES = Math.min(Long.getLong("server.maxRequestBytes", 32L * 1024 * 1024), Integer.MAX_VALUE - 8);
+
     public static void main(String[] args) throws IOException, InterruptedException {
-        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 8001), 0);
+        HttpServer server = HttpServer.create(new InetSocketAddress(HOST, PORT), 0);
 
         Main main = new Main();
         server.createContext("/", exchange -> {
             try {
+                //handle query string parameters
+                Map<String, String> queryParameters = null;
+                String query = exchange.getRequestURI().getQuery();
+                if (query != null) {
+                    queryParameters = parseQueryString(query);
+                }
+
+                if (exchange.getRequestURI().getPath().equals("/metrics")) {
+                    handleMetrics(exchange);
+                    return;
+                }
+
+                // Images go straight from the request body to the response body without Base64 or Lambda events
+                if (exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+                    if (BatchProcessor.isBatch(exchange.getRequestHeaders().getFirst("Content-Type"))) {
+                        handleBatch(exchange, queryParameters);
+                    } else if (VideoProcessor.isVideo(exchange.getRequestHeaders().getFirst("Content-Type"))) {
+                        handleVideo(exchange, queryParameters);
+                    } else {
+                        handleImage(exchange, queryParameters);
+                    }
+                    return;
+                }
+
                 APIGatewayV2HTTPEvent.APIGatewayV2HTTPEventBuilder eventBuilder = APIGatewayV2HTTPEvent.builder()
                         .withRequestContext(APIGatewayV2HTTPEvent.RequestContext.builder()
                                 .withHttp(APIGatewayV2HTTPEvent.RequestContext.Http.builder()
                                         .withMethod(exchange.getRequestMethod())
                                         .build())
                                 .build());
-
-                //handle query string parameters
-                String query = exchange.getRequestURI().getQuery();
-                if (query != null) {
-                    Map<String, String> queryParameters = parseQueryString(query);
+                if (queryParameters != null) {
                     eventBuilder.withQueryStringParameters(queryParameters);
                 }
-
-                byte[] body = exchange.getRequestBody().readAllBytes();
-                if (exchange.getRequestMethod().equalsIgnoreCase("POST")) {
-                    String base64EncodedBody = Base64.getEncoder().encodeToString(body);
-                    eventBuilder.withBody(base64EncodedBody);
-                    eventBuilder.withIsBase64Encoded(true);
-                }
                 APIGatewayV2HTTPEvent event = eventBuilder.build();
 
                 APIGatewayV2HTTPResponse response = main.handleRequest(event, null);
 
                 response.getHeaders().forEach((key, value) -> exchange.getResponseHeaders().add(key, value));
-                if (response.getBody().isEmpty()) {
-                    exchange.sendResponseHeaders(200, -1);
+                if (response.getBody() == null || response.getBody().isEmpty()) {
+                    exchange.sendResponseHeaders(response.getStatusCode(), -1);
                 } else {
                     byte[] bytes;
                     if (response.getIsBase64Encoded()) {
@@ -53,7 +85,7 @@ public class LocalRunner {
                     } else {
                         bytes = response.getBody().getBytes(StandardCharsets.UTF_8);
                     }
-                    exchange.sendResponseHeaders(200, bytes.length);
+                    exchange.sendResponseHeaders(response.getStatusCode(), bytes.length);
                     exchange.getResponseBody().write(bytes);
                 }
                 exchange.close();
@@ -63,12 +95,244 @@ public class LocalRunner {
                 throw new RuntimeException(e);
             }
         });
-        server.setExecutor(Executors.newFixedThreadPool(10));
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
         server.start();
-        System.out.println(" Server started on http://localhost:8001");
+        System.out.println(" Server started on http://" + HOST + ":" + PORT);
     }
 
 
+    // Percentiles of every stage per mode since the server started, when run with -Dmetrics.enabled=true
+    private static void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            if (!RequestMetrics.ENABLED) {
+                sendText(exchange, 404, "Metrics are disabled, run with -Dmetrics.enabled=true");
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, 0);
+            RequestMetrics.writeSnapshot(exchange.getResponseBody());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void handleBatch(HttpExchange exchange, Map<String, String> queryParameters) throws IOException {
+        try (Body body = readBody(exchange)) {
+            if (body == null) {
+                return;
+            }
+
+            // The images of a batch are not known up front, so it is admitted as one request of unknown size
+            // and its own pool bounds how many of its images are processed at once
+            AdmissionLimiter.Permit permit = AdmissionLimiter.SHARED.acquire(0);
+            try (permit) {
+                // The request is fully read and checked before the results start streaming, so failures can still become a 400
+                OutputStream responseBody = new FilterOutputStream(exchange.getResponseBody()) {
+                    private boolean headersSent;
+
+                    private void sendHeaders() throws IOException {
+                        if (!headersSent) {
+                            exchange.getResponseHeaders().add("Content-Type", BatchProcessor.CONTENT_TYPE);
+                            exchange.sendResponseHeaders(200, 0);
+                            headersSent = true;
+                        }
+                    }
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        sendHeaders();
+                        out.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        sendHeaders();
+                        out.write(b, off, len);
+                    }
+                };
+                BatchProcessor.process(body.buffer().inputStream(), queryParameters, responseBody);
+            }
+        } catch (AdmissionLimiter.SaturatedException e) {
+            sendSaturated(exchange, e);
+        } catch (IllegalArgumentException e) {
+            sendText(exchange, 400, e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Frames are read from the upload as they arrive and each frame's result is sent as soon as it is done
+    private static void handleVideo(HttpExchange exchange, Map<String, String> queryParameters) throws IOException {
+        try {
+            ImageProcessor.Mode mode = Main.parseMode(queryParameters);
+
+            // The frame size isn't known until the first frame arrives, so the stream is admitted as one request of unknown size
+            AdmissionLimiter.Permit permit = AdmissionLimiter.SHARED.acquire(0);
+            try (permit; InputStream requestBody = exchange.getRequestBody()) {
+                // Headers are only sent with the first frame's result, so a bad mode or first frame can still become a 400
+                OutputStream responseBody = new FilterOutputStream(exchange.getResponseBody()) {
+                    private boolean headersSent;
+
+                    private void sendHeaders() throws IOException {
+                        if (!headersSent) {
+                            exchange.getResponseHeaders().add("Content-Type", VideoProcessor.CONTENT_TYPE);
+                            exchange.sendResponseHeaders(200, 0);
+                            headersSent = true;
+                        }
+                    }
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        sendHeaders();
+                        out.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        sendHeaders();
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        if (headersSent) {
+                            out.flush();
+                        }
+                    }
+                };
+                VideoProcessor.process(requestBody, mode, queryParameters, responseBody);
+            }
+        } catch (AdmissionLimiter.SaturatedException e) {
+            sendSaturated(exchange, e);
+        } catch (IllegalArgumentException e) {
+            sendText(exchange, 400, e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void handleImage(HttpExchange exchange, Map<String, String> queryParameters) throws IOException {
+        try {
+            ImageProcessor.Mode mode = Main.parseMode(queryParameters);
+            OutputFormat format = OutputFormat.negotiate(mode, queryParameters, exchange.getRequestHeaders().getFirst("Accept"));
+
+            // Recorded in the histograms served at /metrics
+            try (RequestMetrics metrics = RequestMetrics.start(mode.name());
+                 Body body = readBody(exchange)) {
+                if (body == null) {
+                    return;
+                }
+                metrics.inputBytes(body.buffer().size());
+                String key = ResultCache.key(body.buffer().contents(), mode, format, queryParameters);
+                Map<String, String> headers = Main.imageHeaders(format, ResultCache.etag(key));
+                if (ResultCache.matches(exchange.getRequestHeaders().getFirst("If-None-Match"), ResultCache.etag(key))) {
+                    headers.forEach((name, value) -> exchange.getResponseHeaders().add(name, value));
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+
+                // Headers are only sent once the result starts streaming, so failures can still become a 400
+                OutputStream responseBody = new FilterOutputStream(exchange.getResponseBody()) {
+                    private boolean headersSent;
+
+                    private void sendHeaders() throws IOException {
+                        if (!headersSent) {
+                            headers.forEach((name, value) -> exchange.getResponseHeaders().add(name, value));
+                            exchange.sendResponseHeaders(200, 0);
+                            headersSent = true;
+                        }
+                    }
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        sendHeaders();
+                        out.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        sendHeaders();
+                        out.write(b, off, len);
+                    }
+                };
+
+                // Working memory scales with the decoded size, which the header gives without decoding
+                Size size = ImageHeader.dimensions(body.buffer().contents());
+                long pixels = size == null ? 0 : (long) (size.width * size.height);
+                AdmissionLimiter.Permit permit = AdmissionLimiter.SHARED.acquire(pixels);
+                try (permit) {
+                    ResultCache.SHARED.processImage(key, body.buffer().contents(), mode, format, queryParameters, responseBody);
+                }
+            }
+        } catch (AdmissionLimiter.SaturatedException e) {
+            sendSaturated(exchange, e);
+        } catch (IllegalArgumentException e) {
+            sendText(exchange, 400, e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * An upload read into native memory, holding its share of the limiter's byte budget until closed.
+     */
+    private record Body(DirectBuffer buffer, AdmissionLimiter.Reservation reservation) implements AutoCloseable {
+        @Override
+        public void close() {
+            reservation.close();
+        }
+    }
+
+    /**
+     * Read the upload once into native memory, sized from Content-Length when the client sends it.
+     * The bytes are reserved before anything is allocated; a chunked upload has no length up front,
+     * so it reserves the most a body may hold.
+     *
+     * @return the body, or null if it was too large and a 413 has been sent
+     * @throws AdmissionLimiter.SaturatedException when the byte budget couldn't be reserved in time
+     */
+    private static Body readBody(HttpExchange exchange) throws IOException {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        long length;
+        try {
+            length = contentLength != null ? Long.parseLong(contentLength) : -1;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid Content-Length '" + contentLength + "'");
+        }
+        if (length > MAX_REQUEST_BYTES) {
+            sendText(exchange, 413, "Request body is larger than " + MAX_REQUEST_BYTES + " bytes");
+            return null;
+        }
+
+        AdmissionLimiter.Reservation reservation = AdmissionLimiter.SHARED.reserveBytes(length >= 0 ? length : MAX_REQUEST_BYTES);
+        try (InputStream requestBody = exchange.getRequestBody()) {
+            DirectBuffer buffer = new DirectBuffer(length >= 0 ? Math.toIntExact(length) : 64 * 1024);
+            // Chunked uploads have no Content-Length, so the limit is also enforced while reading
+            if (!buffer.readFrom(requestBody, MAX_REQUEST_BYTES)) {
+                reservation.close();
+                sendText(exchange, 413, "Request body is larger than " + MAX_REQUEST_BYTES + " bytes");
+                return null;
+            }
+            return new Body(buffer, reservation);
+        } catch (IOException | RuntimeException e) {
+            reservation.close();
+            throw e;
+        }
+    }
+
+    // 429 when turned away without queueing, 503 when the wait for capacity timed out
+    private static void sendSaturated(HttpExchange exchange, AdmissionLimiter.SaturatedException e) throws IOException {
+        exchange.getResponseHeaders().add("Retry-After", "1");
+        sendText(exchange, e.queueFull() ? 429 : 503, e.getMessage());
+    }
+
+    private static void sendText(HttpExchange exchange, int statusCode, String text) throws IOException {
+        byte[] message = String.valueOf(text).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(statusCode, message.length);
+        exchange.getResponseBody().write(message);
+    }
+
     private static Map<String, String> parseQueryString(String query) {
         Map<String, String> queryParameters = new HashMap<>();
         String[] pairs = query.split("&");
@@ -5,18 +5,26 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.Map;
 import java.util.stream.Collectors;
 
-import static com.mycodefu.ImageProcessor.processImage;
-
 public class Main implements RequestHandler<APIGatewayV2HTTPEvent, APIGatewayV2HTTPResponse> {
 
+    public Main() {
+        // Runs in the Lambda init phase, so natives are loaded, cascades parsed and every mode run once outside of
+        // billed request latency, and a SnapStart snapshot taken after init starts with all of it done
+        long start = System.nanoTime();
+        NativeLibrary.load();
+        ClassifierRegistry.preload(Runtime.getRuntime().availableProcessors());
+        InitWarmup.run();
+        CheckpointHooks.register();
+        RequestMetrics.recordInit(System.nanoTime() - start);
+    }
+
     @Override
     public APIGatewayV2HTTPResponse handleRequest(APIGatewayV2HTTPEvent apiGatewayV2HTTPEvent, Context context) {
         //        System.out.println("Received request:\n" + apiGatewayV2HTTPEvent);
@@ -25,24 +33,62 @@ public class Main implements RequestHandler<APIGatewayV2HTTPEvent, APIGatewayV2H
         String method = apiGatewayV2HTTPEvent.getRequestContext().getHttp().getMethod();
         switch(method) {
             case "POST": {
-                // Get query string parameter 'mode' as Mode
+                if (BatchProcessor.isBatch(header(apiGatewayV2HTTPEvent.getHeaders(), "Content-Type"))) {
+                    return handleBatch(apiGatewayV2HTTPEvent);
+                }
+                if (VideoProcessor.isVideo(header(apiGatewayV2HTTPEvent.getHeaders(), "Content-Type"))) {
+                    return handleVideo(apiGatewayV2HTTPEvent);
+                }
                 ImageProcessor.Mode mode;
-                Map<String, String> queryStringParameters = apiGatewayV2HTTPEvent.getQueryStringParameters();
-                if (queryStringParameters == null || !queryStringParameters.containsKey("mode")) {
-                    mode = ImageProcessor.Mode.Grayscale;
-                } else {
-                    mode = ImageProcessor.Mode.valueOf(queryStringParameters.get("mode"));
+                OutputFormat format;
+                try {
+                    mode = parseMode(apiGatewayV2HTTPEvent.getQueryStringParameters());
+                    format = OutputFormat.negotiate(mode, apiGatewayV2HTTPEvent.getQueryStringParameters(),
+                            header(apiGatewayV2HTTPEvent.getHeaders(), "Accept"));
+                } catch (IllegalArgumentException e) {
+                    return badRequest(e);
                 }
-                String encodedInputImage = apiGatewayV2HTTPEvent.getBody();
+                RequestMetrics metrics = RequestMetrics.start(mode.name());
+                try (metrics) {
+                    long start = metrics.begin();
+                    ByteBuffer inputImage = ByteBuffer.wrap(Base64.getDecoder().decode(apiGatewayV2HTTPEvent.getBody()));
+                    metrics.end(RequestMetrics.Stage.BASE64_DECODE, start);
+                    metrics.inputBytes(inputImage.remaining());
 
-                String encodedResponseImage = processImage(encodedInputImage, mode);
+                    // The ETag is derived from the request alone, so a client with a current copy skips processing entirely
+                    String key = ResultCache.key(inputImage, mode, format, apiGatewayV2HTTPEvent.getQueryStringParameters());
+                    Map<String, String> headers = imageHeaders(format, ResultCache.etag(key));
+                    if (ResultCache.matches(header(apiGatewayV2HTTPEvent.getHeaders(), "If-None-Match"), ResultCache.etag(key))) {
+                        return APIGatewayV2HTTPResponse.builder()
+                                .withStatusCode(304)
+                                .withHeaders(headers)
+                                .build();
+                    }
 
-                return APIGatewayV2HTTPResponse.builder()
-                        .withStatusCode(200)
-                        .withBody(encodedResponseImage)
-                        .withIsBase64Encoded(true)
-                        .withHeaders(Map.of("Content-Type", "image/png"))
-                        .build();
+                    ByteArrayOutputStream result = new ByteArrayOutputStream();
+                    try {
+                        ResultCache.SHARED.processImage(key, inputImage, mode, format, apiGatewayV2HTTPEvent.getQueryStringParameters(), result);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    metrics.outputBytes(result.size());
+
+                    start = metrics.begin();
+                    String encodedResponseImage = Base64.getEncoder().encodeToString(result.toByteArray());
+                    metrics.end(RequestMetrics.Stage.BASE64_ENCODE, start);
+
+                    return APIGatewayV2HTTPResponse.builder()
+                            .withStatusCode(200)
+                            .withBody(encodedResponseImage)
+                            .withIsBase64Encoded(true)
+                            .withHeaders(headers)
+                            .build();
+                } catch (IllegalArgumentException e) {
+                    // A body that isn't Base64 or an image the processor can't decode or report on
+                    return badRequest(e);
+                } finally {
+                    metrics.log();
+                }
             }
             case "GET": {
                 String indexFile;
@@ -79,4 +125,89 @@ public class Main implements RequestHandler<APIGatewayV2HTTPEvent, APIGatewayV2H
                 }
         }
     }
+
+    private static APIGatewayV2HTTPResponse handleBatch(APIGatewayV2HTTPEvent apiGatewayV2HTTPEvent) {
+        String body = apiGatewayV2HTTPEvent.getBody() == null ? "" : apiGatewayV2HTTPEvent.getBody();
+        ByteArrayOutputStream results = new ByteArrayOutputStream();
+        try {
+            byte[] requestBody = apiGatewayV2HTTPEvent.getIsBase64Encoded()
+                    ? Base64.getDecoder().decode(body)
+                    : body.getBytes(StandardCharsets.UTF_8);
+            BatchProcessor.process(new ByteArrayInputStream(requestBody), apiGatewayV2HTTPEvent.getQueryStringParameters(), results);
+        } catch (IllegalArgumentException e) {
+            return badRequest(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return APIGatewayV2HTTPResponse.builder()
+                .withStatusCode(200)
+                .withBody(results.toString(StandardCharsets.UTF_8))
+                .withHeaders(Map.of("Content-Type", BatchProcessor.CONTENT_TYPE))
+                .build();
+    }
+
+    // An API Gateway response can't stream, so the frame results are returned together once the stream is done
+    private static APIGatewayV2HTTPResponse handleVideo(APIGatewayV2HTTPEvent apiGatewayV2HTTPEvent) {
+        String body = apiGatewayV2HTTPEvent.getBody() == null ? "" : apiGatewayV2HTTPEvent.getBody();
+        ByteArrayOutputStream results = new ByteArrayOutputStream();
+        try {
+            byte[] frames = apiGatewayV2HTTPEvent.getIsBase64Encoded()
+                    ? Base64.getDecoder().decode(body)
+                    : body.getBytes(StandardCharsets.ISO_8859_1);
+            VideoProcessor.process(new ByteArrayInputStream(frames), parseMode(apiGatewayV2HTTPEvent.getQueryStringParameters()),
+                    apiGatewayV2HTTPEvent.getQueryStringParameters(), results);
+        } catch (IllegalArgumentException e) {
+            return badRequest(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return APIGatewayV2HTTPResponse.builder()
+                .withStatusCode(200)
+                .withBody(results.toString(StandardCharsets.UTF_8))
+                .withHeaders(Map.of("Content-Type", VideoProcessor.CONTENT_TYPE))
+                .build();
+    }
+
+    // Invalid requests are the client's to fix, so they get a 400 rather than failing the invocation
+    static APIGatewayV2HTTPResponse badRequest(IllegalArgumentException e) {
+        return APIGatewayV2HTTPResponse.builder()
+                .withStatusCode(400)
+                .withBody(String.valueOf(e.getMessage()))
+                .withHeaders(Map.of("Content-Type", "text/plain"))
+                .build();
+    }
+
+    static Map<String, String> imageHeaders(OutputFormat format, String etag) {
+        return Map.of(
+                "Content-Type", format.contentType(),
+                "Vary", "Accept",
+                "ETag", etag
+        );
+    }
+
+    /**
+     * Look up a header ignoring case; API Gateway lower-cases header names but other callers may not.
+     */
+    static String header(Map<String, String> headers, String name) {
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get query string parameter 'mode' as Mode, defaulting to Grayscale.
+     */
+    static ImageProcessor.Mode parseMode(Map<String, String> queryStringParameters) {
+        if (queryStringParameters == null || !queryStringParameters.containsKey("mode")) {
+            return ImageProcessor.Mode.Grayscale;
+        } else {
+            return ImageProcessor.Mode.valueOf(queryStringParameters.get("mode"));
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,319 @@
+package com.mycodefu;
+
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the largest orange object, assumed to be a mandarin, and circles it. With the 'debug' parameter the
+ * masks before and after noise removal and the contours found are added as panels, for tuning the range.
+ */
+public final class MandarinProcessor implements Processor {
+    // Define a narrow range of orange color in HSV
+    private static final Scalar LOWER_ORANGE = new Scalar(8, 150, 100);
+    private static final Scalar UPPER_ORANGE = new Scalar(18, 255, 255);
+
+    private static final Rect LEGEND_AREA = new Rect(5, 5, 100, 10);
+
+    // Images are searched at about this many pixels first, then at full resolution only around what was found
+    private static final long COARSE_PIXELS = 640 * 480;
+    // Extra full resolution pixels around the coarse contour, covering the morphology kernel's reach
+    private static final int REFINE_MARGIN = 8;
+    // The refined object must be this many times the area the runner up is estimated at, or the whole image is searched
+    private static final double RUNNER_UP_MARGIN = 2;
+
+    @Override
+    public String name() {
+        return "Mandarin";
+    }
+
+    @Override
+    public Output output() {
+        return Output.PHOTOGRAPHIC;
+    }
+
+    @Override
+    public boolean mutatesInput() {
+        return true;
+    }
+
+    @Override
+    public boolean hasDetections() {
+        return true;
+    }
+
+    /**
+     * The largest orange object found by {@link #detectMandarin}, if any, and the working state used to find it.
+     */
+    record MandarinDetection(Mat mask, List<MatOfPoint> contours, MatOfPoint largestContour,
+                             double area, Point center, float radius) implements Detections {
+        boolean found() {
+            return largestContour != null;
+        }
+
+        @Override
+        public void write(JsonWriter json) throws IOException {
+            json.name("mandarin");
+            if (found()) {
+                json.beginObject()
+                        .name("x").value(center.x)
+                        .name("y").value(center.y)
+                        .name("radius").value(radius)
+                        .name("area").value(area)
+                        .endObject();
+            } else {
+                json.nullValue();
+            }
+        }
+    }
+
+    /**
+     * Threshold the image to orange, clean up the mask and find the largest orange contour and its enclosing circle.
+     *
+     * @param maskBeforeMorphology if not null, receives a copy of the mask before noise removal for the debug panels
+     */
+    static MandarinDetection detectMandarin(MatScope scope, Mat image, Mat maskBeforeMorphology) {
+        return detectMandarin(scope, image, maskBeforeMorphology, true);
+    }
+
+    /**
+     * @param removeNoise false to skip the opening, which at a coarse scale would also remove objects that are only
+     *                    a few pixels thin there but survive it at full resolution
+     */
+    private static MandarinDetection detectMandarin(MatScope scope, Mat image, Mat maskBeforeMorphology, boolean removeNoise) {
+        int rows = image.rows();
+        int cols = image.cols();
+
+        // Convert the image to the HSV color space and threshold it to get only orange colors, band by band
+        Mat mask = scope.borrow(rows, cols, CvType.CV_8UC1);
+        TiledExecutor.SHARED.apply(scope, image, mask, (imageBand, maskBand) -> {
+            Mat hsvBand = scope.borrow(imageBand.rows(), cols, CvType.CV_8UC3);
+            Imgproc.cvtColor(imageBand, hsvBand, Imgproc.COLOR_BGR2HSV);
+            Core.inRange(hsvBand, LOWER_ORANGE, UPPER_ORANGE, maskBand);
+        });
+
+        // Create a copy of the mask before applying morphology
+        if (maskBeforeMorphology != null) {
+            mask.copyTo(maskBeforeMorphology);
+        }
+
+        // Perform morphological operations to remove noise
+        Mat kernel = scope.track(Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(5, 5)));
+        Mat opened = scope.borrow(rows, cols, CvType.CV_8UC1);
+        if (removeNoise) {
+            ImageProcessor.morphology(scope, mask, opened, Imgproc.MORPH_OPEN, kernel);
+        } else {
+            mask.copyTo(opened);
+        }
+        ImageProcessor.morphology(scope, opened, mask, Imgproc.MORPH_CLOSE, kernel);
+
+        // Find contours of the mask
+        List<MatOfPoint> contours = new ArrayList<>();
+        Mat hierarchy = scope.mat();
+        Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+        scope.trackAll(contours);
+
+        // Find the largest contour (assuming the mandarin is the largest orange object)
+        double maxArea = 0;
+        MatOfPoint largestContour = null;
+        for (MatOfPoint contour : contours) {
+            double area = Imgproc.contourArea(contour);
+            if (area > maxArea) {
+                    maxArea = area;
+                    largestContour = contour;
+            }
+        }
+
+        Point center = new Point();
+        float[] radius = new float[1];
+        if (largestContour != null) {
+            // Find the minimum enclosing circle of the largest contour
+            MatOfPoint2f contour2f = scope.track(new MatOfPoint2f(largestContour.toArray()));
+            Imgproc.minEnclosingCircle(contour2f, center, radius);
+        }
+        return new MandarinDetection(mask, contours, largestContour, maxArea, center, radius[0]);
+    }
+
+    /**
+     * Find the mandarin as {@link #detectMandarin} does, but first search a downscaled copy and then repeat at
+     * full resolution only in a window around the largest contour found there, so most of a large image is never
+     * converted to HSV or cleaned up at full resolution. The coarse pass skips the noise removal, as at that scale
+     * it would also remove thin objects that are kept at full resolution.
+     * <p>
+     * Sampling can rank objects of similar size differently at the two scales, so the window is only trusted when
+     * the object refined in it is clearly larger than the coarse runner up scaled to full resolution. Otherwise,
+     * or when the coarse pass finds nothing or its contour reaches the window edge at full resolution, the whole
+     * image is searched. Objects thinner than the sampling step can still be missed by the coarse pass altogether.
+     */
+    static MandarinDetection locateMandarin(MatScope scope, Mat image) {
+        double scale = Math.sqrt((double) image.total() / COARSE_PIXELS);
+        if (scale < 2) {
+            return detectMandarin(scope, image, null);
+        }
+
+        Mat coarse = scope.borrow((int) Math.round(image.rows() / scale), (int) Math.round(image.cols() / scale), CvType.CV_8UC3);
+        // Sampling rather than averaging, as the coarse pass only has to find the object and area resampling a large image costs as much as the search
+        Imgproc.resize(image, coarse, coarse.size(), 0, 0, Imgproc.INTER_NEAREST);
+        MandarinDetection coarseDetection = detectMandarin(scope, coarse, null, false);
+        if (coarseDetection.found()) {
+            Rect bounds = Imgproc.boundingRect(coarseDetection.largestContour());
+            double scaleX = (double) image.cols() / coarse.cols();
+            double scaleY = (double) image.rows() / coarse.rows();
+            double runnerUpArea = 0;
+            for (MatOfPoint contour : coarseDetection.contours()) {
+                if (contour != coarseDetection.largestContour()) {
+                    runnerUpArea = Math.max(runnerUpArea, Imgproc.contourArea(contour));
+                }
+            }
+            int margin = (int) Math.ceil(Math.max(scaleX, scaleY)) + REFINE_MARGIN;
+            int left = Math.max(0, (int) Math.floor(bounds.x * scaleX) - margin);
+            int top = Math.max(0, (int) Math.floor(bounds.y * scaleY) - margin);
+            int right = Math.min(image.cols(), (int) Math.ceil((bounds.x + bounds.width) * scaleX) + margin);
+            int bottom = Math.min(image.rows(), (int) Math.ceil((bounds.y + bounds.height) * scaleY) + margin);
+            MandarinDetection refined = detectMandarinInWindow(scope, image, new Rect(left, top, right - left, bottom - top));
+            if (refined != null && refined.area() >= RUNNER_UP_MARGIN * runnerUpArea * scaleX * scaleY) {
+                return refined;
+            }
+        }
+        return detectMandarin(scope, image, null);
+    }
+
+    /**
+     * Find the mandarin within a window of the image.
+     *
+     * @return the detection, with its centre in image coordinates, or null if nothing was found or the largest
+     * contour touches a window edge that isn't also the image edge, so may carry on outside the window.
+     * Only the circle is translated; the mask and contours are left in window coordinates.
+     */
+    static MandarinDetection detectMandarinInWindow(MatScope scope, Mat image, Rect window) {
+        MandarinDetection found = detectMandarin(scope, scope.track(image.submat(window)), null);
+        if (!found.found()) {
+            return null;
+        }
+        Rect bounds = Imgproc.boundingRect(found.largestContour());
+        if ((bounds.x == 0 && window.x > 0)
+                || (bounds.y == 0 && window.y > 0)
+                || (bounds.x + bounds.width >= window.width && window.x + window.width < image.cols())
+                || (bounds.y + bounds.height >= window.height && window.y + window.height < image.rows())) {
+            return null;
+        }
+        Point center = new Point(found.center().x + window.x, found.center().y + window.y);
+        return new MandarinDetection(found.mask(), found.contours(), found.largestContour(), found.area(), center, found.radius());
+    }
+
+    /**
+     * Circle the mandarin and add the hue legend. With debug, the masks before and after noise removal and the
+     * contours found are added as panels to the right, for tuning the thresholds.
+     */
+    @Override
+    public Mat render(MatScope scope, Mat image, Map<String, String> parameters) {
+        return processMandarin(scope, image, Boolean.parseBoolean(parameters.get("debug")));
+    }
+
+    @Override
+    public Detections detect(MatScope scope, Mat image, Size originalSize, Map<String, String> parameters) {
+        return locateMandarin(scope, image);
+    }
+
+    private static Mat processMandarin(MatScope scope, Mat image, boolean debug) {
+        if (!debug) {
+            annotateMandarin(scope, image, locateMandarin(scope, image));
+            return image;
+        }
+
+        int rows = image.rows();
+        int cols = image.cols();
+
+        Mat maskBeforeMorphology = scope.borrow(rows, cols, CvType.CV_8UC1);
+        MandarinDetection detection = detectMandarin(scope, image, maskBeforeMorphology);
+        Mat mask = detection.mask();
+        List<MatOfPoint> contours = detection.contours();
+        MatOfPoint largestContour = detection.largestContour();
+        annotateMandarin(scope, image, detection);
+
+        // Create a 4-column wide image
+        Mat result = scope.borrow(rows, cols * 4, CvType.CV_8UC3);
+
+        // Place the current image on the left
+        Mat firstPanel = scope.track(result.submat(new Rect(0, 0, image.cols(), image.rows())));
+        image.copyTo(firstPanel);
+
+        // Place the mask before morphology in the second panel
+        Mat maskBeforeMorphologyColorized = scope.borrow(rows, cols, CvType.CV_8UC3);
+        Imgproc.cvtColor(maskBeforeMorphology, maskBeforeMorphologyColorized, Imgproc.COLOR_GRAY2BGR);
+        Mat secondPanel = scope.track(result.submat(new Rect(image.cols(), 0, image.cols(), image.rows())));
+        maskBeforeMorphologyColorized.copyTo(secondPanel);
+
+        // Add title "Mask Before Morphology" to the second panel
+        Scalar white = new Scalar(230, 230, 200);
+        Imgproc.putText(result, "Orange Mask (Before Morphology)", new Point(image.cols() + 5, 15),
+                Imgproc.FONT_HERSHEY_SIMPLEX, 0.4, white, 1, Imgproc.LINE_AA);
+
+        // Place the orange mask in the third panel
+        Mat maskColorized = scope.borrow(rows, cols, CvType.CV_8UC3);
+        Imgproc.cvtColor(mask, maskColorized, Imgproc.COLOR_GRAY2BGR);
+        Mat thirdPanel = scope.track(result.submat(new Rect(image.cols() * 2, 0, image.cols(), image.rows())));
+        maskColorized.copyTo(thirdPanel);
+
+        // Add title "Orange Mask" to the third panel
+        Imgproc.putText(result, "Orange Mask", new Point(image.cols() * 2 + 5, 15),
+                Imgproc.FONT_HERSHEY_SIMPLEX, 0.4, white, 1, Imgproc.LINE_AA);
+
+        // Place the contours detected on the right (fourth panel)
+        Mat contoursImage = scope.borrow(rows, cols, CvType.CV_8UC3);
+        contoursImage.setTo(Scalar.all(0));
+        Scalar orange = new Scalar(0, 165, 255);
+        // Every contour in one call, then the largest again on top
+        Imgproc.drawContours(contoursImage, contours, -1, white, 2);
+        if (largestContour != null) {
+            Imgproc.drawContours(contoursImage, contours, contours.indexOf(largestContour), orange, 2);
+        }
+        Mat fourthPanel = scope.track(result.submat(new Rect(image.cols() * 3, 0, image.cols(), image.rows())));
+        contoursImage.copyTo(fourthPanel);
+
+        // Add title "Contours Found" to the fourth panel
+        Imgproc.putText(result, "Contours Found", new Point(image.cols() * 3 + 5, 15),
+                Imgproc.FONT_HERSHEY_SIMPLEX, 0.4, white, 1, Imgproc.LINE_AA);
+
+
+        return result;
+    }
+
+    // Draw the circle and the legend with the centre onto the image
+    private static void annotateMandarin(MatScope scope, Mat image, MandarinDetection detection) {
+        if (detection.found()) {
+            Scalar green = new Scalar(0, 255, 0);
+            Imgproc.circle(image, detection.center(), (int) detection.radius(), green, 2);
+        }
+        if (image.cols() < LEGEND_AREA.x + LEGEND_AREA.width || image.rows() < LEGEND_AREA.y + LEGEND_AREA.height) {
+            return;
+        }
+        Mat legendAreaOfImage = scope.track(image.submat(LEGEND_AREA));
+        Legend.IMAGE.copyTo(legendAreaOfImage);
+        if (detection.found()) {
+            Scalar white = new Scalar(230, 230, 200);
+            String text = "x: " + (int) detection.center().x + ", y: " + (int) detection.center().y;
+            Imgproc.putText(legendAreaOfImage, text, new Point(5, 8), Imgproc.FONT_HERSHEY_SIMPLEX, 0.3, white, 1, Imgproc.LINE_AA);
+        }
+    }
+
+    // The hue range legend is the same for every image, so it is drawn once, on first use after OpenCV is loaded, and copied in
+    private static final class Legend {
+        static final Mat IMAGE = createLegend();
+    }
+
+    // The range of orange hues detected, left to right
+    private static Mat createLegend() {
+        Mat legend = new Mat(LEGEND_AREA.height, LEGEND_AREA.width, CvType.CV_8UC3, new Scalar(255, 255, 255));
+        for (int i = 0; i < legend.cols(); i++) {
+            double hue = LOWER_ORANGE.val[0] + (UPPER_ORANGE.val[0] - LOWER_ORANGE.val[0]) * i / legend.cols();
+            Imgproc.line(legend, new Point(i, 0), new Point(i, legend.rows()), new Scalar(hue, 255, 255), 1);
+        }
+        Imgproc.cvtColor(legend, legend, Imgproc.COLOR_HSV2BGR);
+        return legend;
+    }
+}
@@ -0,0 +1,129 @@
+package com.mycodefu;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded pool of working Mats bucketed by (rows, cols, type).
+ * Traffic is dominated by a handful of camera resolutions, so reusing buffers across requests avoids
+ * a native malloc/free and page-faulting a fresh multi-megapixel buffer on every request.
+ * When full, Mats are evicted from the least recently used bucket.
+ */
+public final class MatPool {
+    public static final MatPool SHARED = new MatPool(
+            Integer.getInteger("matPool.maxMats", 64),
+            Long.getLong("matPool.maxBytes", 256L * 1024 * 1024));
+
+    private record Key(int rows, int cols, int type) {
+        static Key of(Mat mat) {
+            return new Key(mat.rows(), mat.cols(), mat.type());
+        }
+    }
+
+    // Access ordered so the first bucket is always the least recently used
+    private final LinkedHashMap<Key, Deque<Mat>> buckets = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxMats;
+    private final long maxBytes;
+    private int pooledMats;
+    private long pooledBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public MatPool(int maxMats, long maxBytes) {
+        this.maxMats = maxMats;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Borrow a Mat of the given shape. The contents are undefined, callers must overwrite every pixel.
+     */
+    public Mat borrow(int rows, int cols, int type) {
+        synchronized (this) {
+            Deque<Mat> bucket = buckets.get(new Key(rows, cols, type));
+            if (bucket != null && !bucket.isEmpty()) {
+                Mat mat = bucket.pop();
+                pooledMats--;
+                pooledBytes -= bytes(mat);
+                hits++;
+                return mat;
+            }
+            misses++;
+        }
+        return new Mat(rows, cols, type);
+    }
+
+    /**
+     * Return a borrowed Mat to the pool, releasing it instead if it is not a reusable buffer.
+     */
+    public void giveBack(Mat mat) {
+        long bytes = bytes(mat);
+        if (mat.empty() || mat.isSubmatrix() || maxMats <= 0 || bytes > maxBytes) {
+            mat.release();
+            return;
+        }
+        synchronized (this) {
+            while (pooledMats >= maxMats || pooledBytes + bytes > maxBytes) {
+                evictLeastRecentlyUsed();
+            }
+            buckets.computeIfAbsent(Key.of(mat), key -> new ArrayDeque<>()).push(mat);
+            pooledMats++;
+            pooledBytes += bytes;
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        Iterator<Map.Entry<Key, Deque<Mat>>> iterator = buckets.entrySet().iterator();
+        Deque<Mat> bucket = iterator.next().getValue();
+        Mat evicted = bucket.pollLast();
+        if (bucket.isEmpty()) {
+            iterator.remove();
+        }
+        if (evicted != null) {
+            pooledMats--;
+            pooledBytes -= bytes(evicted);
+            evictions++;
+            evicted.release();
+        }
+    }
+
+    public synchronized void clear() {
+        for (Deque<Mat> bucket : buckets.values()) {
+            for (Mat mat : bucket) {
+                mat.release();
+            }
+        }
+        buckets.clear();
+        pooledMats = 0;
+        pooledBytes = 0;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    public synchronized int pooledMats() {
+        return pooledMats;
+    }
+
+    public synchronized long pooledBytes() {
+        return pooledBytes;
+    }
+
+    private static long bytes(Mat mat) {
+        return mat.total() * mat.elemSize();
+    }
+}
@@ -0,0 +1,119 @@
+package com.mycodefu;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks every Mat (and submat) allocated while processing a request, and releases them all
+ * deterministically when the scope is closed, rather than waiting for the GC to finalize them.
+ */
+public final class MatScope implements AutoCloseable {
+    private static final Set<MatScope> OPEN_SCOPES = ConcurrentHashMap.newKeySet();
+
+    private final List<Mat> mats = new ArrayList<>();
+    private final List<Mat> borrowed = new ArrayList<>();
+    private final List<ByteBuffer> wrapped = new ArrayList<>();
+    private final MatPool pool;
+
+    public MatScope() {
+        this(MatPool.SHARED);
+    }
+
+    public MatScope(MatPool pool) {
+        this.pool = pool;
+        OPEN_SCOPES.add(this);
+    }
+
+    public synchronized <T extends Mat> T track(T mat) {
+        mats.add(mat);
+        return mat;
+    }
+
+    public <T extends Mat> List<T> trackAll(List<T> mats) {
+        for (T mat : mats) {
+            track(mat);
+        }
+        return mats;
+    }
+
+    /**
+     * Wrap a direct buffer as a single row Mat without copying, kept valid until the scope closes.
+     */
+    public synchronized Mat wrap(ByteBuffer buffer) {
+        // The Mat only holds the buffer's address, not the buffer, so without this reference the buffer could be
+        // collected and its memory freed by its cleaner while native code such as imdecode is still reading it
+        wrapped.add(buffer);
+        return track(new Mat(1, buffer.remaining(), CvType.CV_8UC1, buffer));
+    }
+
+    public Mat mat() {
+        return track(new Mat());
+    }
+
+    public Mat mat(int rows, int cols, int type) {
+        return track(new Mat(rows, cols, type));
+    }
+
+    /**
+     * Borrow a working buffer from the pool; it is given back when the scope closes.
+     * The contents are undefined, so only use this for buffers that are fully overwritten.
+     */
+    public synchronized Mat borrow(int rows, int cols, int type) {
+        Mat mat = pool.borrow(rows, cols, type);
+        borrowed.add(mat);
+        return mat;
+    }
+
+    /**
+     * The bytes held by the Mats in this scope. Submats share their parent's buffer so are not counted.
+     */
+    public synchronized long nativeBytes() {
+        long bytes = 0;
+        for (Mat mat : mats) {
+            if (!mat.isSubmatrix()) {
+                bytes += mat.total() * mat.elemSize();
+            }
+        }
+        for (Mat mat : borrowed) {
+            bytes += mat.total() * mat.elemSize();
+        }
+        return bytes;
+    }
+
+    @Override
+    public synchronized void close() {
+        // Release in reverse order so submats drop their reference before the parent
+        for (int i = mats.size() - 1; i >= 0; i--) {
+            mats.get(i).release();
+        }
+        mats.clear();
+        for (Mat mat : borrowed) {
+            pool.giveBack(mat);
+        }
+        borrowed.clear();
+        wrapped.clear();
+        OPEN_SCOPES.remove(this);
+    }
+
+    /**
+     * Debug gauge of native bytes currently held by all open scopes; zero when no request is in flight.
+     * It only sees Mats the scopes track, so it can't show a Mat that was never tracked and so leaks.
+     */
+    public static long liveNativeBytes() {
+        long bytes = 0;
+        for (MatScope scope : OPEN_SCOPES) {
+            bytes += scope.nativeBytes();
+        }
+        return bytes;
+    }
+
+    public static int openScopes() {
+        return OPEN_SCOPES.size();
+    }
+}
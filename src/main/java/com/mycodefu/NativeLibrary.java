@@ -0,0 +1,32 @@
+package com.mycodefu;
+
+import nu.pattern.OpenCV;
+
+/**
+ * Loads the OpenCV native library once per process.
+ * <p>
+ * {@link OpenCV#loadLocally()} copies the 30 MB library out of the jar to a new temp directory before loading it,
+ * on every cold start. When OPENCV_NATIVE_PATH (or -Dopencv.nativePath) names a copy already extracted into the
+ * image, it is loaded straight from there instead. That copy also stays at the same path for the life of the image,
+ * which a checkpointed process needs to find its mapped library again on restore.
+ */
+public final class NativeLibrary {
+    private static final String NATIVE_PATH = System.getProperty("opencv.nativePath", System.getenv("OPENCV_NATIVE_PATH"));
+
+    private static boolean loaded;
+
+    private NativeLibrary() {
+    }
+
+    public static synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        if (NATIVE_PATH == null || NATIVE_PATH.isBlank()) {
+            OpenCV.loadLocally();
+        } else {
+            System.load(NATIVE_PATH);
+        }
+        loaded = true;
+    }
+}
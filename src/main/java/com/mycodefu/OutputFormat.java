@@ -0,0 +1,158 @@
+package com.mycodefu;
+
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.util.*;
+
+/**
+ * The image codec and quality a result is encoded with, or JSON for just the detections.
+ * Clients negotiate it with the 'format' and 'quality' query string parameters or the Accept header,
+ * otherwise each mode has a default suited to its output. 'output=json' is shorthand for 'format=json'.
+ *
+ * @param quality JPEG/WebP quality (1-100) or PNG compression level (0-9), or -1 for the codec's default.
+ */
+public record OutputFormat(Codec codec, int quality) {
+    public static final int DEFAULT_QUALITY = -1;
+
+    public enum Codec {
+        PNG(".png", "image/png", Imgcodecs.IMWRITE_PNG_COMPRESSION, 0, 9),
+        JPEG(".jpg", "image/jpeg", Imgcodecs.IMWRITE_JPEG_QUALITY, 1, 100),
+        WEBP(".webp", "image/webp", Imgcodecs.IMWRITE_WEBP_QUALITY, 1, 100),
+        JSON(".json", "application/json", -1, DEFAULT_QUALITY, DEFAULT_QUALITY);
+
+        private final String extension;
+        private final String contentType;
+        private final int qualityParameter;
+        private final int minQuality;
+        private final int maxQuality;
+
+        Codec(String extension, String contentType, int qualityParameter, int minQuality, int maxQuality) {
+            this.extension = extension;
+            this.contentType = contentType;
+            this.qualityParameter = qualityParameter;
+            this.minQuality = minQuality;
+            this.maxQuality = maxQuality;
+        }
+
+        public String extension() {
+            return extension;
+        }
+
+        public String contentType() {
+            return contentType;
+        }
+
+        static Codec parse(String format) {
+            return switch (format.toLowerCase(Locale.ROOT)) {
+                case "png" -> PNG;
+                case "jpeg", "jpg" -> JPEG;
+                case "webp" -> WEBP;
+                case "json" -> JSON;
+                default -> throw new IllegalArgumentException("Unsupported format '" + format + "', expected png, jpeg, webp or json");
+            };
+        }
+    }
+
+    public OutputFormat {
+        if (codec == Codec.JSON && quality != DEFAULT_QUALITY) {
+            throw new IllegalArgumentException("Quality does not apply to JSON output");
+        }
+        if (quality != DEFAULT_QUALITY && (quality < codec.minQuality || quality > codec.maxQuality)) {
+            throw new IllegalArgumentException("Quality for " + codec + " must be between " + codec.minQuality + " and " + codec.maxQuality);
+        }
+    }
+
+    public String extension() {
+        return codec.extension();
+    }
+
+    public String contentType() {
+        return codec.contentType();
+    }
+
+    /**
+     * The imencode parameters, empty when the codec's defaults are used.
+     */
+    public MatOfInt parameters() {
+        return quality == DEFAULT_QUALITY ? new MatOfInt() : new MatOfInt(codec.qualityParameter, quality);
+    }
+
+    /**
+     * Single channel and synthetic outputs stay lossless PNG at OpenCV's default fast compression level,
+     * while the photographic composites default to JPEG which is far smaller and quicker to encode.
+     * A chain of processors takes the default of its last, whose output is the one encoded.
+     */
+    public static OutputFormat defaultFor(ImageProcessor.Mode mode) {
+        return switch (mode.last().output()) {
+            case LOSSLESS -> new OutputFormat(Codec.PNG, DEFAULT_QUALITY);
+            case PHOTOGRAPHIC -> new OutputFormat(Codec.JPEG, 90);
+        };
+    }
+
+    /**
+     * Choose the format from the 'format' and 'quality' query string parameters, falling back to the
+     * Accept header and then the mode's default.
+     */
+    public static OutputFormat negotiate(ImageProcessor.Mode mode, Map<String, String> queryStringParameters, String accept) {
+        OutputFormat defaultFormat = defaultFor(mode);
+        Map<String, String> parameters = queryStringParameters == null ? Map.of() : queryStringParameters;
+
+        Codec codec;
+        String format = "json".equalsIgnoreCase(parameters.get("output")) ? "json" : parameters.get("format");
+        if (format != null) {
+            codec = Codec.parse(format);
+            if (codec == Codec.JSON && !mode.hasDetections()) {
+                throw new IllegalArgumentException("JSON output is not available for mode " + mode);
+            }
+            if (codec != Codec.JSON && !Imgcodecs.haveImageWriter(codec.extension())) {
+                throw new IllegalArgumentException("Format '" + format + "' is not supported by this OpenCV build");
+            }
+        } else {
+            codec = fromAccept(accept).orElse(defaultFormat.codec());
+        }
+
+        String quality = parameters.get("quality");
+        if (quality != null) {
+            try {
+                return new OutputFormat(codec, Integer.parseInt(quality));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Quality must be a number, was '" + quality + "'");
+            }
+        }
+        return codec == defaultFormat.codec() ? defaultFormat : new OutputFormat(codec, DEFAULT_QUALITY);
+    }
+
+    /**
+     * The most preferred codec in an Accept header, ignoring wildcards which leave the choice to the mode.
+     */
+    static Optional<Codec> fromAccept(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return Optional.empty();
+        }
+        Codec best = null;
+        double bestWeight = 0;
+        for (String range : accept.split(",")) {
+            String[] parts = range.trim().split(";");
+            double weight = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        weight = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        weight = 0;
+                    }
+                }
+            }
+            for (Codec codec : Codec.values()) {
+                if (codec != Codec.JSON && codec.contentType().equalsIgnoreCase(parts[0].trim()) && weight > bestWeight
+                        && Imgcodecs.haveImageWriter(codec.extension())) {
+                    best = codec;
+                    bestWeight = weight;
+                }
+            }
+        }
+        return Optional.ofNullable(best);
+    }
+}
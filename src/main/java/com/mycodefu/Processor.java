@@ -0,0 +1,99 @@
+package com.mycodefu;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * One operation on a decoded image, selected by name with the 'mode' parameter. Implementations are found with
+ * {@link java.util.ServiceLoader}, so a new operation is added by implementing this and listing the class in
+ * META-INF/services/com.mycodefu.Processor, without touching the pipeline.
+ * <p>
+ * Each processor declares what it needs from the pipeline, so the pipeline does no more than that: it decodes
+ * straight to grayscale for a processor that only needs grayscale, decodes JPEGs reduced for detection that runs
+ * at a lower resolution, and only copies a shared image for a processor that draws on its input.
+ * Implementations must be thread safe, as one instance serves every request.
+ */
+public interface Processor {
+    enum Input {
+        COLOR,
+        GRAYSCALE,
+    }
+
+    enum Output {
+        /** Synthetic or single channel images, which stay small as lossless PNG */
+        LOSSLESS,
+        /** Annotated photographs, which are far smaller and quicker to encode as JPEG */
+        PHOTOGRAPHIC,
+    }
+
+    /**
+     * Objects a processor found, written as fields of the JSON detections document.
+     */
+    @FunctionalInterface
+    interface Detections {
+        void write(JsonWriter json) throws IOException;
+    }
+
+    /**
+     * The mode name requests select this processor with.
+     */
+    String name();
+
+    /**
+     * What {@link #render} needs to be given: a BGR image or a single channel grayscale image.
+     */
+    default Input input() {
+        return Input.COLOR;
+    }
+
+    Output output();
+
+    /**
+     * Whether {@link #render} draws on its input, so needs its own copy of an image that is shared.
+     */
+    default boolean mutatesInput() {
+        return false;
+    }
+
+    /**
+     * Process an image of the kind given by {@link #input()}, returning the image to encode.
+     * Working Mats are taken from the scope. The input may be returned, and may only be modified if {@link #mutatesInput()}.
+     *
+     * @param parameters processor specific options, e.g. the query string parameters of the request
+     */
+    Mat render(MatScope scope, Mat image, Map<String, String> parameters);
+
+    /**
+     * Whether the processor detects objects, so can return them as JSON instead of an annotated image.
+     */
+    default boolean hasDetections() {
+        return false;
+    }
+
+    /**
+     * What {@link #detect} needs to be given, which may be less than rendering needs as nothing is drawn.
+     */
+    default Input detectionInput() {
+        return input();
+    }
+
+    /**
+     * The longest side in pixels that detection needs, so a JPEG can be decoded reduced, or 0 for full resolution.
+     */
+    default int detectionMaxDimension(Map<String, String> parameters) {
+        return 0;
+    }
+
+    /**
+     * Detect objects in an image of the kind given by {@link #detectionInput()}, without drawing anything.
+     *
+     * @param image        the image, which may be a reduced decode of the original
+     * @param originalSize the size of the original image, which positions are reported in
+     */
+    default Detections detect(MatScope scope, Mat image, Size originalSize, Map<String, String> parameters) {
+        throw new IllegalArgumentException("JSON output is not available for mode " + name());
+    }
+}
@@ -0,0 +1,40 @@
+package com.mycodefu;
+
+import java.util.*;
+
+/**
+ * The processors on the classpath by name, loaded once with {@link ServiceLoader} in the order they are listed.
+ */
+public final class Processors {
+    private static final Map<String, Processor> PROCESSORS = load();
+
+    private Processors() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if no processor has the name
+     */
+    public static Processor get(String name) {
+        Processor processor = PROCESSORS.get(name);
+        if (processor == null) {
+            throw new IllegalArgumentException("Unknown mode '" + name + "', expected one of " + String.join(", ", PROCESSORS.keySet()));
+        }
+        return processor;
+    }
+
+    public static Collection<Processor> all() {
+        return PROCESSORS.values();
+    }
+
+    private static Map<String, Processor> load() {
+        Map<String, Processor> processors = new LinkedHashMap<>();
+        for (Processor processor : ServiceLoader.load(Processor.class, Processors.class.getClassLoader())) {
+            Processor existing = processors.putIfAbsent(processor.name(), processor);
+            if (existing != null) {
+                throw new IllegalStateException("Processors " + existing.getClass().getName() + " and "
+                        + processor.getClass().getName() + " are both named " + processor.name());
+            }
+        }
+        return Collections.unmodifiableMap(processors);
+    }
+}
@@ -0,0 +1,36 @@
+package com.mycodefu;
+
+import java.util.Map;
+
+/**
+ * Reads numeric query string parameters, rejecting values that don't parse with an {@link IllegalArgumentException}
+ * naming the parameter, so they become a 400.
+ */
+final class QueryParameters {
+    private QueryParameters() {
+    }
+
+    static int parseInt(Map<String, String> parameters, String name, int defaultValue) {
+        String value = parameters.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a whole number, was '" + value + "'");
+        }
+    }
+
+    static double parseDouble(Map<String, String> parameters, String name, double defaultValue) {
+        String value = parameters.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number, was '" + value + "'");
+        }
+    }
+}
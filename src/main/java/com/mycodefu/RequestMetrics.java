@@ -0,0 +1,275 @@
+package com.mycodefu;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-stage timings and sizes for one request, enabled with the METRICS_ENABLED environment variable or
+ * the metrics.enabled system property. Each finished request is added to in-process percentile histograms
+ * (per mode and stage), and Lambda handlers also log it as a CloudWatch embedded metric format line.
+ * <p>
+ * The metrics for the request being handled are found with {@link #current()}, so stages deep in the
+ * pipeline can be timed without threading a parameter through. Work handed to another thread, such as
+ * image bands or batch images, is wrapped with {@link #inheriting} when submitted so it reports to the same
+ * request, and may do so from several threads at once, with stage times adding up across them. When disabled every call is on a shared no-op
+ * instance behind a constant check, so the JIT removes it.
+ */
+public final class RequestMetrics implements AutoCloseable {
+    public static final boolean ENABLED = Boolean.parseBoolean(
+            System.getProperty("metrics.enabled", System.getenv("METRICS_ENABLED")));
+
+    private static final String NAMESPACE = System.getProperty("metrics.namespace", "java-opencv-lambda");
+    private static final RequestMetrics DISABLED = new RequestMetrics("disabled");
+    private static final ThreadLocal<RequestMetrics> CURRENT = new ThreadLocal<>();
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final AtomicBoolean COLD_START = new AtomicBoolean(true);
+    private static volatile long initNanos;
+
+    public enum Stage {
+        BASE64_DECODE("base64Decode"),
+        DECODE("decode"),
+        CLASSIFIER("classifier"),
+        PROCESS("process"),
+        ENCODE("encode"),
+        BASE64_ENCODE("base64Encode"),
+        ;
+
+        private final String metricName;
+
+        Stage(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    private final String operation;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+    private long totalNanos;
+    private long inputBytes;
+    private long outputBytes;
+    private int width;
+    private int height;
+    private final AtomicLong nativeBytes = new AtomicLong();
+    private boolean cacheHit;
+    private boolean coldStart;
+
+    private RequestMetrics(String operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * Start collecting metrics for a request on this thread, named by its mode.
+     */
+    public static RequestMetrics start(String operation) {
+        if (!ENABLED) {
+            return DISABLED;
+        }
+        RequestMetrics metrics = new RequestMetrics(operation);
+        metrics.coldStart = COLD_START.getAndSet(false);
+        CURRENT.set(metrics);
+        return metrics;
+    }
+
+    /**
+     * The metrics of the request being handled on this thread, or a no-op instance.
+     */
+    public static RequestMetrics current() {
+        if (!ENABLED) {
+            return DISABLED;
+        }
+        RequestMetrics metrics = CURRENT.get();
+        return metrics == null ? DISABLED : metrics;
+    }
+
+    /**
+     * Wrap a task to be run on another thread so it reports to the metrics of the request submitting it,
+     * which a thread local alone doesn't carry over to pool threads.
+     */
+    public static <T> Callable<T> inheriting(Callable<T> task) {
+        RequestMetrics metrics = current();
+        if (metrics == DISABLED) {
+            return task;
+        }
+        return () -> {
+            RequestMetrics previous = CURRENT.get();
+            CURRENT.set(metrics);
+            try {
+                return task.call();
+            } finally {
+                if (previous == null) {
+                    CURRENT.remove();
+                } else {
+                    CURRENT.set(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Record how long handler initialization took (native library and classifier loading and warm-up), reported with the first request.
+     */
+    public static void recordInit(long nanos) {
+        initNanos = nanos;
+    }
+
+    /**
+     * Record how long restoring from a snapshot took, reporting the next request as a cold start with this as its init time.
+     */
+    public static void recordRestore(long nanos) {
+        initNanos = nanos;
+        COLD_START.set(true);
+    }
+
+    /**
+     * @return a start time to pass to {@link #end}
+     */
+    public long begin() {
+        return this == DISABLED ? 0 : System.nanoTime();
+    }
+
+    public void end(Stage stage, long begin) {
+        if (this != DISABLED) {
+            stageNanos.addAndGet(stage.ordinal(), System.nanoTime() - begin);
+        }
+    }
+
+    public void inputBytes(long bytes) {
+        inputBytes = bytes;
+    }
+
+    public void outputBytes(long bytes) {
+        outputBytes = bytes;
+    }
+
+    public void dimensions(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    long nativeBytes() {
+        return nativeBytes.get();
+    }
+
+    public void cacheHit() {
+        cacheHit = true;
+    }
+
+    /**
+     * Sample the native memory held by the request's scope, keeping the peak. Call at the point of most Mats alive.
+     * Only this request's scope is counted, as others in flight at the same time belong to other requests.
+     */
+    public void sampleNativeBytes(MatScope scope) {
+        if (this != DISABLED) {
+            nativeBytes.accumulateAndGet(scope.nativeBytes(), Math::max);
+        }
+    }
+
+    /**
+     * Finish the request, adding its timings to the histograms.
+     */
+    @Override
+    public void close() {
+        if (this == DISABLED) {
+            return;
+        }
+        CURRENT.remove();
+        totalNanos = System.nanoTime() - startNanos;
+        histogram(operation + ".total").record(totalNanos);
+        for (Stage stage : Stage.values()) {
+            if (stageNanos.get(stage.ordinal()) > 0) {
+                histogram(operation + "." + stage.metricName).record(stageNanos.get(stage.ordinal()));
+            }
+        }
+    }
+
+    /**
+     * Log the finished request to stdout as a CloudWatch embedded metric format line, which Lambda ships
+     * to CloudWatch Logs where it is extracted as metrics with the mode as a dimension.
+     */
+    public void log() {
+        if (this == DISABLED) {
+            return;
+        }
+        Map<String, Number> values = new TreeMap<>();
+        values.put("totalMs", totalNanos / 1e6);
+        for (Stage stage : Stage.values()) {
+            if (stageNanos.get(stage.ordinal()) > 0) {
+                values.put(stage.metricName + "Ms", stageNanos.get(stage.ordinal()) / 1e6);
+            }
+        }
+        values.put("inputBytes", inputBytes);
+        values.put("outputBytes", outputBytes);
+        values.put("nativeBytes", nativeBytes.get());
+        if (coldStart) {
+            values.put("initMs", initNanos / 1e6);
+        }
+
+        // Built up front so the line is printed in one call and can't interleave with other output
+        ByteArrayOutputStream line = new ByteArrayOutputStream(512);
+        try {
+            JsonWriter json = new JsonWriter(line);
+            json.beginObject().name("_aws").beginObject()
+                    .name("Timestamp").value(System.currentTimeMillis())
+                    .name("CloudWatchMetrics").beginArray().beginObject()
+                    .name("Namespace").value(NAMESPACE)
+                    .name("Dimensions").beginArray().beginArray().value("mode").endArray().endArray()
+                    .name("Metrics").beginArray();
+            for (String name : values.keySet()) {
+                json.beginObject()
+                        .name("Name").value(name)
+                        .name("Unit").value(name.endsWith("Ms") ? "Milliseconds" : "Bytes")
+                        .endObject();
+            }
+            json.endArray().endObject().endArray().endObject();
+            json.name("mode").value(operation);
+            for (Map.Entry<String, Number> value : values.entrySet()) {
+                json.name(value.getKey()).value(value.getValue().doubleValue());
+            }
+            json.name("width").value(width)
+                    .name("height").value(height)
+                    .name("cacheHit").value(cacheHit)
+                    .name("coldStart").value(coldStart)
+                    .endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println(line.toString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write the count, mean and percentiles in milliseconds of every histogram as a JSON document.
+     */
+    public static void writeSnapshot(OutputStream output) throws IOException {
+        JsonWriter json = new JsonWriter(output);
+        json.beginObject();
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(HISTOGRAMS).entrySet()) {
+            Histogram histogram = entry.getValue();
+            json.name(entry.getKey()).beginObject()
+                    .name("count").value(histogram.count())
+                    .name("meanMs").value(histogram.mean() / 1e6)
+                    .name("p50Ms").value(histogram.percentile(50) / 1e6)
+                    .name("p90Ms").value(histogram.percentile(90) / 1e6)
+                    .name("p99Ms").value(histogram.percentile(99) / 1e6)
+                    .name("maxMs").value(histogram.max() / 1e6)
+                    .endObject();
+        }
+        json.name("liveNativeBytes").value(MatScope.liveNativeBytes())
+                .name("pooledBytes").value(MatPool.SHARED.pooledBytes())
+                .endObject();
+        json.flush();
+    }
+
+    static Histogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, key -> new Histogram());
+    }
+}
@@ -0,0 +1,371 @@
+package com.mycodefu;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * A content addressed cache of encoded results, keyed by a hash of the input image bytes, the mode,
+ * the output format and the remaining parameters. The same product photos are requested over and over,
+ * so a hit skips the decode, processing and encode entirely.
+ * <p>
+ * Results are held in a memory tier bounded by total bytes with least recently used eviction, and
+ * optionally in a disk tier (e.g. under /tmp) which survives for the life of the Lambda execution
+ * environment and holds far more than the heap can. Disk hits are promoted back into memory.
+ * <p>
+ * Keys include the id of the build, so a deploy that changes how results are produced neither answers a client's
+ * If-None-Match for an old result with a 304 nor serves results an earlier build left on disk. Those are simply
+ * never hit again and age out of the disk tier.
+ */
+public final class ResultCache {
+    public static final ResultCache SHARED = new ResultCache(
+            Long.getLong("resultCache.maxBytes", 64L * 1024 * 1024),
+            Optional.ofNullable(System.getProperty("resultCache.dir")).map(Path::of).orElse(null),
+            Long.getLong("resultCache.maxDiskBytes", 512L * 1024 * 1024));
+
+    private static final String BUILD_ID = buildId();
+
+    // Parameters already captured by the mode and output format parts of the key
+    private static final Set<String> FORMAT_PARAMETERS = Set.of("mode", "format", "output", "quality");
+
+    // Access ordered so the first entry is always the least recently used
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Long> diskEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private final Path directory;
+    private final long maxDiskBytes;
+    private long memoryBytes;
+    private long diskBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * A result held in the memory tier: the first length bytes of the buffer it was captured in, kept as is rather than
+     * copied to an exact size. The tier is bounded by the buffers' full size, as that is what they hold on to.
+     */
+    private record Entry(byte[] buffer, int length) {
+        Entry(byte[] result) {
+            this(result, result.length);
+        }
+
+        byte[] bytes() {
+            return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+        }
+    }
+
+    /**
+     * Writes straight through to the output, keeping a copy only while the result is still small enough to be cached,
+     * so a result too large to cache costs no more than streaming it.
+     */
+    private static final class CapturingOutputStream extends FilterOutputStream {
+        private static final int INITIAL_CAPACITY = 64 * 1024;
+
+        private final int limit;
+        private byte[] buffer;
+        private int count;
+
+        CapturingOutputStream(OutputStream output, int limit) {
+            super(output);
+            this.limit = limit;
+            this.buffer = new byte[Math.min(INITIAL_CAPACITY, limit)];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            capture(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            capture(bytes, offset, length);
+        }
+
+        /**
+         * @return the captured result, or null if it grew too large to cache
+         */
+        Entry captured() {
+            return buffer == null ? null : new Entry(buffer, count);
+        }
+
+        private void capture(byte[] bytes, int offset, int length) {
+            if (buffer == null) {
+                return;
+            }
+            if (length > limit - count) {
+                buffer = null;
+                return;
+            }
+            if (count + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, (int) Math.min(limit, Math.max(count + length, 2L * buffer.length)));
+            }
+            System.arraycopy(bytes, offset, buffer, count, length);
+            count += length;
+        }
+    }
+
+    /**
+     * @param directory where the disk tier keeps results, or null for memory only
+     */
+    public ResultCache(long maxBytes, Path directory, long maxDiskBytes) {
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        if (directory != null) {
+            loadDiskEntries();
+        }
+    }
+
+    /**
+     * The cache key for processing an image, which is also used as its ETag.
+     * SHA-256 is hardware accelerated on current x86 and ARM cores, so hashing costs far less than a decode,
+     * and unlike a non-cryptographic hash a collision can't serve one client's image to another.
+     */
+    public static String key(ByteBuffer imageData, ImageProcessor.Mode mode, OutputFormat format, Map<String, String> parameters) {
+        MessageDigest digest = sha256();
+        digest.update(BUILD_ID.getBytes(StandardCharsets.UTF_8));
+        digest.update(imageData.duplicate());
+
+        StringBuilder options = new StringBuilder()
+                .append('\n').append(mode.name())
+                .append('\n').append(format.codec().name()).append(':').append(format.quality());
+        if (parameters != null) {
+            new TreeMap<>(parameters).forEach((name, value) -> {
+                if (!FORMAT_PARAMETERS.contains(name)) {
+                    options.append('\n').append(name).append('=').append(value);
+                }
+            });
+        }
+        digest.update(options.toString().getBytes(StandardCharsets.UTF_8));
+
+        // 128 bits is plenty for a cache key and keeps the ETag short
+        return HexFormat.of().formatHex(digest.digest(), 0, 16);
+    }
+
+    public static String etag(String key) {
+        return "\"" + key + "\"";
+    }
+
+    /**
+     * Whether an If-None-Match header value lists the ETag, so the client's copy is current.
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write the cached result for the key to the output stream, or process the image and cache the result.
+     */
+    public void processImage(String key, ByteBuffer imageData, ImageProcessor.Mode mode, OutputFormat format,
+                             Map<String, String> parameters, OutputStream output) throws IOException {
+        Entry cached = find(key);
+        if (cached != null) {
+            RequestMetrics.current().cacheHit();
+            output.write(cached.buffer(), 0, cached.length());
+            return;
+        }
+
+        // Captured on the heap, so even with the disk tier a result is only cached if the memory tier would hold it
+        long cacheable = Math.min(maxBytes / 4, directory == null ? Long.MAX_VALUE : maxDiskBytes);
+        if (cacheable <= 0) {
+            ImageProcessor.processImage(imageData, mode, format, parameters, output);
+            return;
+        }
+        CapturingOutputStream capturing = new CapturingOutputStream(output, (int) Math.min(cacheable, Integer.MAX_VALUE - 8));
+        ImageProcessor.processImage(imageData, mode, format, parameters, capturing);
+        Entry result = capturing.captured();
+        if (result != null) {
+            put(key, result);
+        }
+    }
+
+    public byte[] get(String key) {
+        Entry entry = find(key);
+        return entry == null ? null : entry.bytes();
+    }
+
+    private Entry find(String key) {
+        synchronized (this) {
+            Entry result = memory.get(key);
+            if (result != null) {
+                hits++;
+                return result;
+            }
+            if (directory == null || diskEntries.get(key) == null) {
+                misses++;
+                return null;
+            }
+        }
+
+        Entry result;
+        try {
+            result = new Entry(Files.readAllBytes(directory.resolve(key)));
+            Files.setLastModifiedTime(directory.resolve(key), FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Removed from under us, e.g. /tmp was cleaned, so forget it
+            synchronized (this) {
+                Long bytes = diskEntries.remove(key);
+                if (bytes != null) {
+                    diskBytes -= bytes;
+                }
+                misses++;
+            }
+            return null;
+        }
+        synchronized (this) {
+            hits++;
+            putInMemory(key, result);
+        }
+        return result;
+    }
+
+    public void put(String key, byte[] result) {
+        put(key, new Entry(result));
+    }
+
+    private void put(String key, Entry result) {
+        synchronized (this) {
+            putInMemory(key, result);
+            if (directory == null || result.length() > maxDiskBytes || diskEntries.containsKey(key)) {
+                return;
+            }
+        }
+
+        // Written to a temporary file and moved into place, so a concurrent reader never sees a partial result
+        try {
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            try (OutputStream file = Files.newOutputStream(temporary)) {
+                file.write(result.buffer(), 0, result.length());
+            }
+            Files.move(temporary, directory.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The disk tier is best effort, e.g. when /tmp is full
+            return;
+        }
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            diskEntries.put(key, (long) result.length());
+            diskBytes += result.length();
+            Iterator<Map.Entry<String, Long>> iterator = diskEntries.entrySet().iterator();
+            while (diskBytes > maxDiskBytes && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                diskBytes -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                iterator.remove();
+            }
+        }
+        for (String evictedKey : evicted) {
+            try {
+                Files.deleteIfExists(directory.resolve(evictedKey));
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void putInMemory(String key, Entry result) {
+        if (result.buffer().length > maxBytes / 4) {
+            // A single large result would flush most of the tier
+            return;
+        }
+        Entry previous = memory.put(key, result);
+        memoryBytes += result.buffer().length - (previous == null ? 0 : previous.buffer().length);
+        Iterator<Map.Entry<String, Entry>> iterator = memory.entrySet().iterator();
+        while (memoryBytes > maxBytes) {
+            memoryBytes -= iterator.next().getValue().buffer().length;
+            iterator.remove();
+        }
+    }
+
+    // Pick up results written by earlier instances in this execution environment, oldest first
+    private void loadDiskEntries() {
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                files.filter(Files::isRegularFile)
+                        .sorted(Comparator.comparing(ResultCache::lastModified))
+                        .forEach(file -> {
+                            String name = file.getFileName().toString();
+                            if (name.endsWith(".tmp")) {
+                                file.toFile().delete();
+                            } else {
+                                long bytes = file.toFile().length();
+                                diskEntries.put(name, bytes);
+                                diskBytes += bytes;
+                            }
+                        });
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the result cache directory " + directory, e);
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    // Stamped into build.properties by the Maven build; a build run from an IDE without it falls back to "dev"
+    static String buildId() {
+        try (InputStream stream = ResultCache.class.getResourceAsStream("build.properties")) {
+            if (stream == null) {
+                return "dev";
+            }
+            Properties properties = new Properties();
+            properties.load(stream);
+            String buildId = properties.getProperty("build.id");
+            return buildId == null || buildId.contains("${") ? "dev" : buildId;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long memoryBytes() {
+        return memoryBytes;
+    }
+
+    public synchronized long diskBytes() {
+        return diskBytes;
+    }
+}
@@ -0,0 +1,251 @@
+package com.mycodefu;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * A streaming variant of {@link Main} for large uploads.
+ * The API Gateway event is parsed as it is read, decoding the Base64 body straight into a direct buffer
+ * instead of materializing it as a String, and the encoded result is streamed out as Base64 as it is
+ * copied from native memory. Peak heap per request is a small fixed set of chunk buffers.
+ */
+public class StreamingMain implements RequestStreamHandler {
+    private final Main main = new Main();
+
+    private static class Event {
+        String method;
+        Map<String, String> queryStringParameters;
+        Map<String, String> headers;
+        boolean isBase64Encoded;
+        DirectBuffer body;
+    }
+
+    @Override
+    public void handleRequest(InputStream input, OutputStream output, Context context) throws IOException {
+        Event event = readEvent(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)));
+        OutputStream bufferedOutput = new BufferedOutputStream(output);
+
+        if (!"POST".equals(event.method)) {
+            APIGatewayV2HTTPResponse response = main.handleRequest(APIGatewayV2HTTPEvent.builder()
+                    .withRequestContext(APIGatewayV2HTTPEvent.RequestContext.builder()
+                            .withHttp(APIGatewayV2HTTPEvent.RequestContext.Http.builder()
+                                    .withMethod(event.method)
+                                    .build())
+                            .build())
+                    .withQueryStringParameters(event.queryStringParameters)
+                    .withHeaders(event.headers)
+                    .build(), context);
+            writeResponse(bufferedOutput, response);
+            bufferedOutput.flush();
+            return;
+        }
+
+        if (BatchProcessor.isBatch(Main.header(event.headers, "Content-Type"))) {
+            handleBatch(event, bufferedOutput);
+            bufferedOutput.flush();
+            return;
+        }
+
+        if (VideoProcessor.isVideo(Main.header(event.headers, "Content-Type"))) {
+            handleVideo(event, bufferedOutput);
+            bufferedOutput.flush();
+            return;
+        }
+
+        try {
+            if (event.body == null || !event.isBase64Encoded) {
+                throw new IllegalArgumentException("Expected a Base64 encoded image body");
+            }
+            ImageProcessor.Mode mode = Main.parseMode(event.queryStringParameters);
+            OutputFormat format = OutputFormat.negotiate(mode, event.queryStringParameters, Main.header(event.headers, "Accept"));
+            RequestMetrics metrics = RequestMetrics.start(mode.name());
+            try (metrics) {
+                long start = metrics.begin();
+                ByteBuffer image = event.body.decodeBase64InPlace();
+                metrics.end(RequestMetrics.Stage.BASE64_DECODE, start);
+                metrics.inputBytes(image.remaining());
+                String key = ResultCache.key(image, mode, format, event.queryStringParameters);
+                Map<String, String> headers = Main.imageHeaders(format, ResultCache.etag(key));
+                if (ResultCache.matches(Main.header(event.headers, "If-None-Match"), ResultCache.etag(key))) {
+                    writeResponse(bufferedOutput, APIGatewayV2HTTPResponse.builder()
+                            .withStatusCode(304)
+                            .withHeaders(headers)
+                            .build());
+                    bufferedOutput.flush();
+                    return;
+                }
+
+                // The response prefix is only written once the image has been processed and the result is
+                // streaming, so a failure before that point can still be reported as an error response.
+                JsonWriter json = new JsonWriter(bufferedOutput);
+                OutputStream body = new OutputStream() {
+                    private OutputStream base64;
+                    private long written;
+
+                    private OutputStream base64() throws IOException {
+                        if (base64 == null) {
+                            json.beginObject()
+                                    .name("statusCode").value(200)
+                                    .name("headers").value(headers)
+                                    .name("isBase64Encoded").value(true)
+                                    .name("body");
+                            base64 = json.base64Value();
+                        }
+                        return base64;
+                    }
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        base64().write(b);
+                        metrics.outputBytes(++written);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        base64().write(b, off, len);
+                        written += len;
+                        metrics.outputBytes(written);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        base64().close();
+                    }
+                };
+                ResultCache.SHARED.processImage(key, image, mode, format, event.queryStringParameters, body);
+                body.close();
+                json.endObject();
+            } finally {
+                metrics.log();
+            }
+        } catch (IllegalArgumentException e) {
+            writeResponse(bufferedOutput, APIGatewayV2HTTPResponse.builder()
+                    .withStatusCode(400)
+                    .withBody(String.valueOf(e.getMessage()))
+                    .withHeaders(Map.of("Content-Type", "text/plain"))
+                    .build());
+        }
+        bufferedOutput.flush();
+    }
+
+    // The batch results are an escaped JSON string in the response, so they are buffered rather than streamed
+    private static void handleBatch(Event event, OutputStream output) throws IOException {
+        APIGatewayV2HTTPResponse response;
+        try {
+            if (event.body == null) {
+                throw new IllegalArgumentException("Expected a JSON batch body");
+            }
+            if (event.isBase64Encoded) {
+                event.body.decodeBase64InPlace();
+            }
+            ByteArrayOutputStream results = new ByteArrayOutputStream();
+            BatchProcessor.process(event.body.inputStream(), event.queryStringParameters, results);
+            response = APIGatewayV2HTTPResponse.builder()
+                    .withStatusCode(200)
+                    .withBody(results.toString(StandardCharsets.UTF_8))
+                    .withHeaders(Map.of("Content-Type", BatchProcessor.CONTENT_TYPE))
+                    .build();
+        } catch (IllegalArgumentException e) {
+            response = APIGatewayV2HTTPResponse.builder()
+                    .withStatusCode(400)
+                    .withBody(String.valueOf(e.getMessage()))
+                    .withHeaders(Map.of("Content-Type", "text/plain"))
+                    .build();
+        }
+        writeResponse(output, response);
+    }
+
+    // Like a batch, the frame results are an escaped JSON string in the response so they are buffered
+    private static void handleVideo(Event event, OutputStream output) throws IOException {
+        APIGatewayV2HTTPResponse response;
+        try {
+            if (event.body == null || !event.isBase64Encoded) {
+                throw new IllegalArgumentException("Expected a Base64 encoded video body");
+            }
+            event.body.decodeBase64InPlace();
+            ByteArrayOutputStream results = new ByteArrayOutputStream();
+            VideoProcessor.process(event.body.inputStream(), Main.parseMode(event.queryStringParameters), event.queryStringParameters, results);
+            response = APIGatewayV2HTTPResponse.builder()
+                    .withStatusCode(200)
+                    .withBody(results.toString(StandardCharsets.UTF_8))
+                    .withHeaders(Map.of("Content-Type", VideoProcessor.CONTENT_TYPE))
+                    .build();
+        } catch (IllegalArgumentException e) {
+            response = APIGatewayV2HTTPResponse.builder()
+                    .withStatusCode(400)
+                    .withBody(String.valueOf(e.getMessage()))
+                    .withHeaders(Map.of("Content-Type", "text/plain"))
+                    .build();
+        }
+        writeResponse(output, response);
+    }
+
+    private static Event readEvent(Reader reader) throws IOException {
+        Event event = new Event();
+        JsonReader json = new JsonReader(reader);
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (json.peek() == JsonReader.Token.NULL) {
+                json.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "queryStringParameters" -> event.queryStringParameters = json.nextStringMap();
+                case "headers" -> event.headers = json.nextStringMap();
+                case "isBase64Encoded" -> event.isBase64Encoded = json.nextBoolean();
+                case "requestContext" -> event.method = readMethod(json);
+                case "body" -> {
+                    event.body = new DirectBuffer(64 * 1024);
+                    json.nextString(event.body);
+                }
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+        return event;
+    }
+
+    // requestContext.http.method
+    private static String readMethod(JsonReader json) throws IOException {
+        String method = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            if (json.nextName().equals("http") && json.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                json.beginObject();
+                while (json.hasNext()) {
+                    if (json.nextName().equals("method") && json.peek() == JsonReader.Token.STRING) {
+                        method = json.nextString();
+                    } else {
+                        json.skipValue();
+                    }
+                }
+                json.endObject();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        return method;
+    }
+
+    private static void writeResponse(OutputStream output, APIGatewayV2HTTPResponse response) throws IOException {
+        JsonWriter json = new JsonWriter(output);
+        json.beginObject().name("statusCode").value(response.getStatusCode());
+        if (response.getHeaders() != null) {
+            json.name("headers").value(response.getHeaders());
+        }
+        json.name("isBase64Encoded").value(response.getIsBase64Encoded());
+        if (response.getBody() != null) {
+            json.name("body").value(response.getBody());
+        }
+        json.endObject();
+    }
+}
@@ -0,0 +1,118 @@
+package com.mycodefu;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs per-pixel stages over large images as horizontal row bands (submats) in parallel on a fork-join pool.
+ * Images below a pixel-count threshold, or when only one processor is available, run as a single call.
+ * <p>
+ * Neighbourhood operations such as morphology read rows above and below each output row, so they are run on
+ * each band extended by a halo of rows, and only the band's own rows are copied out. With a halo at least
+ * as large as the operation's reach, the output is bit-identical to running it over the whole image.
+ */
+public final class TiledExecutor {
+    public static final TiledExecutor SHARED = new TiledExecutor(
+            Integer.getInteger("tiling.parallelism", Runtime.getRuntime().availableProcessors()),
+            Long.getLong("tiling.minPixels", 1_000_000L));
+
+    private static final int MIN_BAND_ROWS = 64;
+
+    @FunctionalInterface
+    public interface BandOperation {
+        /**
+         * @param src a band of the source image
+         * @param dst the matching band of the destination, already allocated; it must not be reallocated
+         */
+        void apply(Mat src, Mat dst);
+    }
+
+    private final int parallelism;
+    private final long minPixels;
+    private final ForkJoinPool pool;
+
+    public TiledExecutor(int parallelism, long minPixels) {
+        this.parallelism = Math.max(1, parallelism);
+        this.minPixels = minPixels;
+        this.pool = this.parallelism > 1 ? new ForkJoinPool(this.parallelism) : null;
+    }
+
+    /**
+     * The number of bands an image is split into, 1 when it is processed as a single call.
+     */
+    public int bands(Mat src) {
+        if (pool == null || src.total() < minPixels) {
+            return 1;
+        }
+        return Math.max(1, Math.min(parallelism, src.rows() / MIN_BAND_ROWS));
+    }
+
+    /**
+     * Apply a per-pixel operation from src to dst, which must have the same number of rows.
+     */
+    public void apply(MatScope scope, Mat src, Mat dst, BandOperation operation) {
+        apply(scope, src, dst, 0, operation);
+    }
+
+    /**
+     * Apply an operation from src to dst, which must have the same number of rows, giving each band
+     * the given number of extra rows of context above and below.
+     */
+    public void apply(MatScope scope, Mat src, Mat dst, int halo, BandOperation operation) {
+        int rows = src.rows();
+        int bands = bands(src);
+        if (bands == 1) {
+            operation.apply(src, dst);
+            return;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>(bands);
+        for (int band = 0; band < bands; band++) {
+            int start = rows * band / bands;
+            int end = rows * (band + 1) / bands;
+            // Bands run on pool threads, so they carry the request's metrics over for any stages timed inside them
+            tasks.add(RequestMetrics.inheriting(() -> {
+                Mat dstBand = scope.track(dst.rowRange(start, end));
+                if (halo == 0) {
+                    applyToBand(operation, scope.track(src.rowRange(start, end)), dstBand);
+                } else {
+                    int haloStart = Math.max(0, start - halo);
+                    int haloEnd = Math.min(rows, end + halo);
+                    Mat srcBand = scope.track(src.rowRange(haloStart, haloEnd));
+                    Mat result = scope.borrow(haloEnd - haloStart, dst.cols(), dst.type());
+                    applyToBand(operation, srcBand, result);
+                    scope.track(result.rowRange(start - haloStart, end - haloStart)).copyTo(dstBand);
+                }
+                return null;
+            }));
+        }
+
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while processing image bands", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static void applyToBand(BandOperation operation, Mat src, Mat dst) {
+        long address = dst.dataAddr();
+        operation.apply(src, dst);
+        if (dst.dataAddr() != address) {
+            throw new IllegalStateException("Band operation reallocated its output, so the result would be lost");
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.mycodefu;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs a detecting mode such as FaceDetection, Mandarin or ColorObjects over each frame of a Motion JPEG stream,
+ * i.e. a clip recorded as MJPEG or a multipart/x-mixed-replace stream of JPEG parts, writing a line of JSON for
+ * each frame as soon as it is done:
+ * <pre>
+ * {"frame":0,"mode":"Mandarin","width":640,"height":480,"mandarin":{"x":..,"y":..,"radius":..,"area":..},"tracked":false}
+ * {"frame":1,"mode":"Mandarin","width":640,"height":480,"mandarin":{...},"tracked":true}
+ * {"frame":2,"error":"Could not decode the input image"}
+ * </pre>
+ * Frames are read one at a time into a reused native buffer, and each frame's working Mats go back to the
+ * pool, so the next frame of the same size reuses them rather than allocating.
+ * <p>
+ * Mandarin tracks the fruit from frame to frame: only a window around the previous frame's circle is
+ * thresholded and searched, and 'tracked' is true when that was enough. The full frame is searched again
+ * when nothing is found in the window or the fruit reaches the window's edge.
+ */
+public final class VideoProcessor {
+    public static final String CONTENT_TYPE = "application/x-ndjson";
+
+    private static final Set<String> CONTENT_TYPES = Set.of(
+            "video/x-motion-jpeg", "video/mjpeg", "multipart/x-mixed-replace", "multipart/mixed");
+    private static final int MAX_FRAME_BYTES = Integer.getInteger("video.maxFrameBytes", 16 * 1024 * 1024);
+
+    // The window reaches this many radii from the previous centre plus a margin, to allow for movement between frames
+    private static final double WINDOW_RADII = 2;
+    private static final int WINDOW_MARGIN = 16;
+    // Window reach is rounded up to this, so windows of a steadily tracked fruit are the same size and share pooled Mats
+    private static final int WINDOW_ALIGNMENT = 16;
+
+    private VideoProcessor() {
+    }
+
+    /**
+     * Whether a request body is a stream of frames, by its content type.
+     */
+    public static boolean isVideo(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        int parametersStart = type.indexOf(';');
+        return CONTENT_TYPES.contains((parametersStart < 0 ? type : type.substring(0, parametersStart)).trim());
+    }
+
+    /**
+     * Process each frame of the stream in turn, writing and flushing a JSON line per frame.
+     * A frame that fails to decode is reported on its line and the stream carries on. Problems with the stream
+     * itself, such as a truncated or oversized frame, are thrown as an {@link IllegalArgumentException} if no
+     * frame has been written yet, and otherwise end the output with an error line.
+     *
+     * @param parameters mode specific options, e.g. the query string parameters of the request
+     */
+    public static void process(InputStream frames, ImageProcessor.Mode mode, Map<String, String> parameters, OutputStream output) throws IOException {
+        if (!mode.hasDetections()) {
+            throw new IllegalArgumentException("Video is not available for mode " + mode + ", which detects nothing");
+        }
+        if (parameters == null) {
+            parameters = Map.of();
+        }
+
+        FrameReader reader = new FrameReader(frames, MAX_FRAME_BYTES);
+        DirectBuffer frame = new DirectBuffer(256 * 1024);
+        JsonWriter json = new JsonWriter(output);
+        boolean tracking = mode.processors().size() == 1 && mode.last() instanceof MandarinProcessor;
+        MandarinProcessor.MandarinDetection previous = null;
+        for (int index = 0; ; index++) {
+            try {
+                if (!reader.next(frame)) {
+                    if (index == 0) {
+                        throw new IllegalArgumentException("Expected a stream of JPEG frames");
+                    }
+                    break;
+                }
+            } catch (IllegalArgumentException e) {
+                if (index == 0) {
+                    throw e;
+                }
+                json.beginObject().name("frame").value(index).name("error").value(e.getMessage()).endObject();
+                writeLineEnd(output);
+                break;
+            }
+
+            json.beginObject().name("frame").value(index);
+            try (MatScope scope = new MatScope()) {
+                Mat encodedFrame = ImageProcessor.encoded(scope, frame.contents());
+                if (tracking) {
+                    Mat image = ImageProcessor.decode(scope, encodedFrame, Imgcodecs.IMREAD_COLOR);
+                    MandarinProcessor.MandarinDetection mandarin = previous == null ? null : searchWindow(scope, image, previous);
+                    boolean tracked = mandarin != null;
+                    if (!tracked) {
+                        mandarin = MandarinProcessor.locateMandarin(scope, image);
+                    }
+                    previous = mandarin.found() ? mandarin : null;
+                    ImageProcessor.writeDetectionFields(json, new ImageProcessor.DetectionResult(mode, image.size(), mandarin));
+                    json.name("tracked").value(tracked);
+                } else {
+                    ImageProcessor.writeDetectionFields(json, ImageProcessor.detect(scope, encodedFrame, mode, parameters));
+                }
+            } catch (IllegalArgumentException e) {
+                previous = null;
+                json.name("error").value(e.getMessage());
+            }
+            json.endObject();
+            writeLineEnd(output);
+        }
+        output.flush();
+    }
+
+    private static void writeLineEnd(OutputStream output) throws IOException {
+        output.write('\n');
+        output.flush();
+    }
+
+    /**
+     * Search for the mandarin in a window around where it was in the previous frame.
+     *
+     * @return the detection, with its centre in frame coordinates, or null if the full frame needs searching
+     */
+    private static MandarinProcessor.MandarinDetection searchWindow(MatScope scope, Mat image, MandarinProcessor.MandarinDetection previous) {
+        int reach = (int) Math.ceil(previous.radius() * WINDOW_RADII) + WINDOW_MARGIN;
+        reach = (reach + WINDOW_ALIGNMENT - 1) / WINDOW_ALIGNMENT * WINDOW_ALIGNMENT;
+        int left = Math.max(0, (int) previous.center().x - reach);
+        int top = Math.max(0, (int) previous.center().y - reach);
+        int right = Math.min(image.cols(), (int) previous.center().x + reach);
+        int bottom = Math.min(image.rows(), (int) previous.center().y + reach);
+        Rect window = new Rect(left, top, right - left, bottom - top);
+        if (window.width <= 0 || window.height <= 0 || window.area() * 2 > image.total()) {
+            // Not much smaller than the frame, so the full search costs about the same
+            return null;
+        }
+
+        return MandarinProcessor.detectMandarinInWindow(scope, image, window);
+    }
+}
@@ -0,0 +1,77 @@
+package com.mycodefu;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionLimiterTest {
+    @Test
+    void acquireAdmitsUpToTheConcurrencyLimit() {
+        AdmissionLimiter limiter = new AdmissionLimiter(2, 100_000_000, 0, 10);
+
+        AdmissionLimiter.Permit first = limiter.acquire(1000);
+        AdmissionLimiter.Permit second = limiter.acquire(1000);
+        AdmissionLimiter.SaturatedException rejected = assertThrows(AdmissionLimiter.SaturatedException.class, () -> limiter.acquire(1000));
+        assertTrue(rejected.queueFull());
+        assertEquals(2, limiter.inFlight());
+
+        first.close();
+        first.close();
+        limiter.acquire(1000).close();
+        second.close();
+        assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    void acquireWaitsForThePixelBudgetThenTimesOut() {
+        AdmissionLimiter limiter = new AdmissionLimiter(4, 10_000_000, 4, 50);
+
+        AdmissionLimiter.Permit large = limiter.acquire(8_000_000);
+        AdmissionLimiter.SaturatedException timedOut = assertThrows(AdmissionLimiter.SaturatedException.class, () -> limiter.acquire(4_000_000));
+        assertFalse(timedOut.queueFull());
+        // Concurrency permits taken while waiting for pixels are given back
+        assertEquals(1, limiter.inFlight());
+        assertEquals(0, limiter.waiting());
+
+        limiter.acquire(1_000_000).close();
+        large.close();
+    }
+
+    @Test
+    void aQueuedRequestIsAdmittedWhenCapacityIsReleased() throws Exception {
+        AdmissionLimiter limiter = new AdmissionLimiter(1, 10_000_000, 4, 5_000);
+
+        AdmissionLimiter.Permit running = limiter.acquire(0);
+        CompletableFuture<AdmissionLimiter.Permit> queued = CompletableFuture.supplyAsync(() -> limiter.acquire(50_000_000));
+        while (limiter.waiting() == 0) {
+            Thread.sleep(1);
+        }
+        assertFalse(queued.isDone());
+
+        running.close();
+        // Larger than the whole budget, so admitted once it has the budget to itself
+        queued.get(5, TimeUnit.SECONDS).close();
+        assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    void reserveBytesHoldsBackBodiesBeyondTheByteBudget() {
+        AdmissionLimiter limiter = new AdmissionLimiter(4, 10_000_000, 4, 50, 1024 * 1024);
+
+        AdmissionLimiter.Reservation first = limiter.reserveBytes(768 * 1024);
+        AdmissionLimiter.SaturatedException timedOut = assertThrows(AdmissionLimiter.SaturatedException.class, () -> limiter.reserveBytes(512 * 1024));
+        assertFalse(timedOut.queueFull());
+        assertEquals(0, limiter.waiting());
+        // Bytes are budgeted separately from concurrency
+        assertEquals(0, limiter.inFlight());
+
+        limiter.reserveBytes(256 * 1024).close();
+        first.close();
+        first.close();
+        // Larger than the whole budget, so admitted once it has the budget to itself
+        limiter.reserveBytes(4 * 1024 * 1024).close();
+    }
+}
@@ -0,0 +1,167 @@
+package com.mycodefu;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.*;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchProcessorTest {
+    private static String testImage;
+
+    @BeforeAll
+    static void createTestImage() {
+        OpenCV.loadLocally();
+
+        Mat image = new Mat(240, 320, CvType.CV_8UC3, new Scalar(90, 90, 90));
+        Imgproc.circle(image, new Point(200, 120), 40, new Scalar(0, 128, 255), -1);
+        MatOfByte encoded = new MatOfByte();
+        Imgcodecs.imencode(".png", image, encoded);
+        testImage = Base64.getEncoder().encodeToString(encoded.toArray());
+        encoded.release();
+        image.release();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> process(String request, Map<String, String> queryStringParameters) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BatchProcessor.process(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)), queryStringParameters, output);
+        return results(output.toString(StandardCharsets.UTF_8));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> results(String response) throws IOException {
+        Map<String, Object> document = (Map<String, Object>) readValue(new JsonReader(new StringReader(response)));
+        return (List<Map<String, Object>>) document.get("results");
+    }
+
+    static Object readValue(JsonReader json) throws IOException {
+        switch (json.peek()) {
+            case BEGIN_OBJECT -> {
+                Map<String, Object> object = new LinkedHashMap<>();
+                json.beginObject();
+                while (json.hasNext()) {
+                    String name = json.nextName();
+                    object.put(name, readValue(json));
+                }
+                json.endObject();
+                return object;
+            }
+            case BEGIN_ARRAY -> {
+                List<Object> array = new ArrayList<>();
+                json.beginArray();
+                while (json.hasNext()) {
+                    array.add(readValue(json));
+                }
+                json.endArray();
+                return array;
+            }
+            case NUMBER -> {
+                return json.nextDouble();
+            }
+            case BOOLEAN -> {
+                return json.nextBoolean();
+            }
+            case NULL -> {
+                json.nextNull();
+                return null;
+            }
+            default -> {
+                return json.nextString();
+            }
+        }
+    }
+
+    @Test
+    void processRunsEveryModeOverEveryImageWithPerItemErrors() throws IOException {
+        List<Map<String, Object>> results = process("""
+                {"modes":["Grayscale","Mandarin"],"images":["%s","bm90IGFuIGltYWdl"]}
+                """.formatted(testImage), null);
+
+        assertEquals(4, results.size());
+        // The decoded image is shared, so each result matches processing the image on its own
+        assertEquals(0.0, results.get(0).get("image"));
+        assertEquals("Grayscale", results.get(0).get("mode"));
+        assertEquals("image/png", results.get(0).get("contentType"));
+        assertEquals(ImageProcessor.processImage(testImage, ImageProcessor.Mode.Grayscale), results.get(0).get("body"));
+        assertEquals("Mandarin", results.get(1).get("mode"));
+        assertEquals("image/jpeg", results.get(1).get("contentType"));
+        assertEquals(ImageProcessor.processImage(testImage, ImageProcessor.Mode.Mandarin), results.get(1).get("body"));
+
+        for (Map<String, Object> result : results.subList(2, 4)) {
+            assertEquals(1.0, result.get("image"));
+            assertEquals("Could not decode the input image", result.get("error"));
+            assertFalse(result.containsKey("body"));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void processNestsJsonDetections() throws IOException {
+        List<Map<String, Object>> results = process("""
+                {"modes":["Mandarin","Grayscale"],"parameters":{"format":"json"},"images":["%s"]}
+                """.formatted(testImage), Map.of("format", "png"));
+
+        Map<String, Object> detections = (Map<String, Object>) results.get(0).get("detections");
+        assertEquals("application/json", results.get(0).get("contentType"));
+        assertEquals(320.0, detections.get("width"));
+        Map<String, Object> mandarin = (Map<String, Object>) detections.get("mandarin");
+        assertEquals(200, (double) mandarin.get("x"), 2);
+        assertEquals(120, (double) mandarin.get("y"), 2);
+
+        assertEquals("JSON output is not available for mode Grayscale", results.get(1).get("error"));
+    }
+
+    @Test
+    void processRejectsABatchWithoutImages() {
+        assertThrows(IllegalArgumentException.class, () -> process("{\"modes\":[\"Grayscale\"],\"images\":[]}", null));
+        assertThrows(IllegalArgumentException.class, () -> process("{\"images\":[", null));
+    }
+
+    @Test
+    void mainHandlesJsonBodiesAsBatches() throws IOException {
+        APIGatewayV2HTTPEvent event = APIGatewayV2HTTPEvent.builder()
+                .withRequestContext(APIGatewayV2HTTPEvent.RequestContext.builder()
+                        .withHttp(APIGatewayV2HTTPEvent.RequestContext.Http.builder().withMethod("POST").build())
+                        .build())
+                .withHeaders(Map.of("content-type", "application/json"))
+                .withQueryStringParameters(Map.of("mode", "GreenBlueRedSplit"))
+                .withBody("{\"images\":[\"%s\"]}".formatted(testImage))
+                .build();
+
+        APIGatewayV2HTTPResponse response = new Main().handleRequest(event, null);
+
+        assertEquals(200, response.getStatusCode());
+        assertEquals("application/json", response.getHeaders().get("Content-Type"));
+        List<Map<String, Object>> results = results(response.getBody());
+        assertEquals(1, results.size());
+        assertEquals("GreenBlueRedSplit", results.get(0).get("mode"));
+        assertEquals(ImageProcessor.processImage(testImage, ImageProcessor.Mode.GreenBlueRedSplit), results.get(0).get("body"));
+    }
+
+    @Test
+    void mainAnswersAnInvalidBatchWithABadRequest() {
+        APIGatewayV2HTTPEvent event = APIGatewayV2HTTPEvent.builder()
+                .withRequestContext(APIGatewayV2HTTPEvent.RequestContext.builder()
+                        .withHttp(APIGatewayV2HTTPEvent.RequestContext.Http.builder().withMethod("POST").build())
+                        .build())
+                .withHeaders(Map.of("content-type", "application/json"))
+                .withBody("{\"modes\":[\"Grayscale\"],\"images\":[]}")
+                .build();
+
+        APIGatewayV2HTTPResponse response = new Main().handleRequest(event, null);
+
+        assertEquals(400, response.getStatusCode());
+        assertEquals("text/plain", response.getHeaders().get("Content-Type"));
+        assertEquals("A batch needs at least one mode and one image", response.getBody());
+    }
+}
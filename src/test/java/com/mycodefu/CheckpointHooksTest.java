@@ -0,0 +1,51 @@
+package com.mycodefu;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckpointHooksTest {
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    @Test
+    void beforeCheckpointReleasesPooledMats() {
+        try (MatScope scope = new MatScope()) {
+            scope.borrow(64, 64, CvType.CV_8UC3);
+        }
+        assertTrue(MatPool.SHARED.pooledMats() > 0);
+
+        CheckpointHooks.instance().beforeCheckpoint(null);
+
+        assertEquals(0, MatPool.SHARED.pooledMats());
+        assertEquals(0, MatPool.SHARED.pooledBytes());
+    }
+
+    @Test
+    void afterRestoreCopiesMissingCascadesBack() throws IOException {
+        Path path = ClassifierRegistry.path(ClassifierRegistry.FRONTAL_FACE);
+        Files.delete(path);
+
+        CheckpointHooks.instance().afterRestore(null);
+
+        assertTrue(Files.size(path) > 0);
+        // More instances than are pooled, so at least one is loaded from the file
+        ClassifierRegistry.Lease[] leases = new ClassifierRegistry.Lease[Runtime.getRuntime().availableProcessors() + 1];
+        for (int i = 0; i < leases.length; i++) {
+            leases[i] = ClassifierRegistry.acquire(ClassifierRegistry.FRONTAL_FACE);
+            assertFalse(leases[i].classifier().empty());
+        }
+        for (ClassifierRegistry.Lease lease : leases) {
+            lease.close();
+        }
+    }
+}
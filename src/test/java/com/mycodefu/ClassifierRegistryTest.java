@@ -0,0 +1,38 @@
+package com.mycodefu;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassifierRegistryTest {
+    @Test
+    void acquireHandsOutExclusiveInstancesAndReusesReturnedOnes() {
+        ClassifierRegistry.Lease first = ClassifierRegistry.acquire(ClassifierRegistry.FRONTAL_FACE);
+        ClassifierRegistry.Lease second = ClassifierRegistry.acquire(ClassifierRegistry.FRONTAL_FACE);
+
+        assertNotSame(first.classifier(), second.classifier());
+        assertFalse(first.classifier().empty());
+
+        second.close();
+        try (ClassifierRegistry.Lease third = ClassifierRegistry.acquire(ClassifierRegistry.FRONTAL_FACE)) {
+            assertSame(second.classifier(), third.classifier());
+        }
+        first.close();
+    }
+
+    @Test
+    void registerAddsModelsByName() {
+        ClassifierRegistry.register("frontalface-copy", "/haarcascade_frontalface_default.xml");
+
+        assertTrue(ClassifierRegistry.names().contains("frontalface-copy"));
+        try (ClassifierRegistry.Lease lease = ClassifierRegistry.acquire("frontalface-copy")) {
+            assertFalse(lease.classifier().empty());
+        }
+    }
+
+    @Test
+    void unknownModelsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> ClassifierRegistry.acquire("not-registered"));
+        assertThrows(IllegalArgumentException.class, () -> ClassifierRegistry.register("missing", "/missing.xml"));
+    }
+}
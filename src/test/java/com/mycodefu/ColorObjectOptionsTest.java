@@ -0,0 +1,50 @@
+package com.mycodefu;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColorObjectOptionsTest {
+    @Test
+    void colorsComeFromTheParametersOrElseTheConfiguredDefault() {
+        ColorObjectOptions options = ColorObjectOptions.from(Map.of(
+                "colors", "lime:50-70,100-255,80-255; red:170-8,120-255,70-255", "topK", "2", "minArea", "10.5"));
+
+        assertEquals(List.of(
+                new ColorObjectOptions.ColorRange("lime", 50, 70, 100, 255, 80, 255),
+                new ColorObjectOptions.ColorRange("red", 170, 8, 120, 255, 70, 255)), options.colors());
+        assertEquals(2, options.topK());
+        assertEquals(10.5, options.minArea());
+        assertEquals("orange", ColorObjectOptions.from(null).colors().get(0).name());
+    }
+
+    @Test
+    void lookupTableSetsEachColorsBitPerChannelWithHueWrapping() {
+        byte[] table = ColorObjectOptions.from(Map.of("colors", "lime:50-70,100-255,80-255;red:170-8,120-255,70-255")).lookupTable();
+
+        // Hue
+        assertEquals(0b01, table[60 * 3]);
+        assertEquals(0b10, table[175 * 3]);
+        assertEquals(0b10, table[3 * 3]);
+        assertEquals(0, table[100 * 3]);
+        assertEquals(0, table[200 * 3]);
+        // Saturation and value
+        assertEquals(0b01, table[110 * 3 + 1]);
+        assertEquals(0b11, table[130 * 3 + 1]);
+        assertEquals(0b10, table[75 * 3 + 2]);
+        assertEquals(0, new ColorObjectOptions.ColorRange("x", 170, 10, 0, 255, 0, 255).middleHue());
+    }
+
+    @Test
+    void invalidColorsAreRejected() {
+        for (String colors : new String[]{"orange", "orange:8-18,150-255", "orange:8-18,255-150,100-255",
+                "orange:8-200,150-255,100-255", "a:1-2,1-2,1-2;a:1-2,1-2,1-2", ":1-2,1-2,1-2",
+                "a:x-2,1-2,1-2", "1:1-2,1-2,1-2;2:1-2,1-2,1-2;3:1-2,1-2,1-2;4:1-2,1-2,1-2;5:1-2,1-2,1-2;6:1-2,1-2,1-2;7:1-2,1-2,1-2;8:1-2,1-2,1-2;9:1-2,1-2,1-2"}) {
+            assertThrows(IllegalArgumentException.class, () -> ColorObjectOptions.from(Map.of("colors", colors)), colors);
+        }
+        assertThrows(IllegalArgumentException.class, () -> ColorObjectOptions.from(Map.of("topK", "0")));
+    }
+}
@@ -0,0 +1,48 @@
+package com.mycodefu;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistogramTest {
+    @Test
+    void bucketsCoverTheirValuesWithinSixPercent() {
+        for (long value : new long[]{0, 1, 15, 16, 17, 31, 32, 1_000, 123_456_789, Long.MAX_VALUE / 3}) {
+            long upperBound = Histogram.upperBound(Histogram.bucket(value));
+            assertTrue(upperBound >= value, "upper bound of " + value);
+            assertTrue(upperBound <= value + value / 16 + 1, "precision of " + value);
+        }
+    }
+
+    @Test
+    void percentilesOfAUniformDistribution() {
+        Histogram histogram = new Histogram();
+        for (long millis = 1; millis <= 1000; millis++) {
+            histogram.record(millis * 1_000_000);
+        }
+
+        assertEquals(1000, histogram.count());
+        assertEquals(500.5e6, histogram.mean(), 1);
+        assertEquals(500e6, histogram.percentile(50), 500e6 / 16);
+        assertEquals(990e6, histogram.percentile(99), 990e6 / 16);
+        assertEquals(1000e6, histogram.percentile(100));
+        assertEquals(1000e6, histogram.max());
+        assertEquals(0, new Histogram().percentile(50));
+    }
+
+    @Test
+    void metricsSnapshotListsEachHistogram() throws IOException {
+        RequestMetrics.histogram("Test.decode").record(2_000_000);
+
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        RequestMetrics.writeSnapshot(snapshot);
+
+        String json = snapshot.toString(StandardCharsets.UTF_8);
+        assertTrue(json.contains("\"Test.decode\":{\"count\":1,\"meanMs\":2,\"p50Ms\":2"), json);
+        assertTrue(json.contains("\"liveNativeBytes\":"), json);
+    }
+}
@@ -0,0 +1,67 @@
+package com.mycodefu;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.*;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageHeaderTest {
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    private static Mat encode(String extension, int width, int height) {
+        Mat image = new Mat(height, width, CvType.CV_8UC3, new Scalar(10, 20, 30));
+        MatOfByte encoded = new MatOfByte();
+        Imgcodecs.imencode(extension, image, encoded);
+        image.release();
+        return encoded.reshape(1, 1);
+    }
+
+    @Test
+    void dimensionsAreReadFromPngAndJpegHeaders() {
+        assertEquals(new Size(321, 123), ImageHeader.dimensions(encode(".png", 321, 123)));
+        assertEquals(new Size(1001, 77), ImageHeader.dimensions(encode(".jpg", 1001, 77)));
+    }
+
+    @Test
+    void dimensionsAreReadFromABufferFromItsPosition() {
+        byte[] jpeg = new MatOfByte(encode(".jpg", 640, 480)).toArray();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(jpeg.length + 3);
+        buffer.put(new byte[3]).put(jpeg).flip().position(3);
+
+        assertEquals(new Size(640, 480), ImageHeader.dimensions(buffer));
+        assertEquals(3, buffer.position());
+        assertNull(ImageHeader.dimensions(ByteBuffer.wrap(new byte[]{1, 2, 3})));
+    }
+
+    @Test
+    void unrecognisedFormatsHaveNoDimensions() {
+        assertNull(ImageHeader.dimensions(encode(".bmp", 10, 10)));
+        assertNull(ImageHeader.dimensions(new MatOfByte((byte) 0xff, (byte) 0xd8).reshape(1, 1)));
+    }
+
+    @Test
+    void decodeReductionIsFullResolutionWithoutAMaxDimension() {
+        assertEquals(1, ImageHeader.decodeReduction(4000, 3000, 0));
+        assertEquals(8, ImageHeader.decodeReduction(4000, 3000, 500));
+        assertEquals(1, ImageHeader.decodeReduction(600, 400, 500));
+    }
+
+    @Test
+    void faceDetectionOptionsChooseTheReductionFromTheHeaderSize() {
+        FaceDetectionOptions options = FaceDetectionOptions.DEFAULT;
+
+        assertEquals(4, options.decodeReduction(4000, 3000));
+        assertEquals(2, options.decodeReduction(1920, 1080));
+        assertEquals(1, options.decodeReduction(640, 480));
+        assertEquals(0.16, options.detectionScale(4000, 3000), 1e-9);
+        assertEquals(1, options.detectionScale(640, 480));
+    }
+}
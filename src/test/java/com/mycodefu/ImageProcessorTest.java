@@ -0,0 +1,336 @@
+package com.mycodefu;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.*;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ImageProcessorTest {
+    private static String testImage;
+
+    @BeforeAll
+    static void createTestImage() {
+        OpenCV.loadLocally();
+
+        // A grey 320x240 image with an orange disc, enough to exercise every mode
+        Mat image = new Mat(240, 320, CvType.CV_8UC3, new Scalar(90, 90, 90));
+        Imgproc.circle(image, new Point(200, 120), 40, new Scalar(0, 128, 255), -1);
+        MatOfByte encoded = new MatOfByte();
+        Imgcodecs.imencode(".png", image, encoded);
+        testImage = Base64.getEncoder().encodeToString(encoded.toArray());
+        encoded.release();
+        image.release();
+    }
+
+    @Test
+    void processImageClosesEveryScope() {
+        for (ImageProcessor.Mode mode : ImageProcessor.Mode.values()) {
+            String result = ImageProcessor.processImage(testImage, mode);
+
+            assertFalse(result.isEmpty(), mode.name());
+            assertEquals(0, MatScope.openScopes(), mode.name());
+        }
+    }
+
+    @Test
+    void repeatedRequestsKeepNativeMemoryBounded() throws IOException {
+        // Resident memory outside the Java heap is the only measure that also sees Mats never tracked by a scope
+        Path status = Path.of("/proc/self/status");
+        assumeTrue(Files.isReadable(status), "Needs /proc to read the resident set size");
+
+        // Large enough that a single leaked Mat per request adds up to far more than the allowance
+        Mat image = new Mat(1200, 1600, CvType.CV_8UC3, new Scalar(90, 90, 90));
+        Imgproc.circle(image, new Point(1000, 600), 200, new Scalar(0, 128, 255), -1);
+        MatOfByte encoded = new MatOfByte();
+        Imgcodecs.imencode(".jpg", image, encoded);
+        ByteBuffer imageData = ByteBuffer.allocateDirect((int) encoded.total()).put(encoded.toArray()).flip();
+        encoded.release();
+        image.release();
+
+        // Let the pool, JIT and malloc arenas settle before the baseline. A leaked Mat of this image per request
+        // grows it by tens of megabytes over the rounds, until the GC happens to finalize them.
+        processEveryMode(imageData, 10);
+        long before = nativeResidentBytes(status);
+        processEveryMode(imageData, 20);
+        long growth = nativeResidentBytes(status) - before;
+
+        assertEquals(0, MatScope.openScopes());
+        assertTrue(growth < 16L * 1024 * 1024, "Resident memory outside the heap grew by " + growth + " bytes");
+    }
+
+    private static void processEveryMode(ByteBuffer imageData, int rounds) throws IOException {
+        for (int i = 0; i < rounds; i++) {
+            for (ImageProcessor.Mode mode : ImageProcessor.Mode.values()) {
+                ImageProcessor.processImage(imageData.duplicate(), mode, OutputFormat.defaultFor(mode), Map.of(), OutputStream.nullOutputStream());
+            }
+        }
+    }
+
+    // The process's resident set size less the memory committed to the Java heap and the JVM's own non-heap pools
+    private static long nativeResidentBytes(Path status) throws IOException {
+        long residentKiloBytes = Files.readAllLines(status).stream()
+                .filter(line -> line.startsWith("VmRSS:"))
+                .mapToLong(line -> Long.parseLong(line.replaceAll("\\D", "")))
+                .findFirst()
+                .orElseThrow();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        return residentKiloBytes * 1024 - memory.getHeapMemoryUsage().getCommitted() - memory.getNonHeapMemoryUsage().getCommitted();
+    }
+
+    @Test
+    void binaryProcessImageMatchesTheBase64Path() throws IOException {
+        byte[] imageData = Base64.getDecoder().decode(testImage);
+        String expected = ImageProcessor.processImage(testImage, ImageProcessor.Mode.GreenBlueRedSplit);
+
+        ByteArrayOutputStream fromBytes = new ByteArrayOutputStream();
+        ImageProcessor.processImage(imageData, ImageProcessor.Mode.GreenBlueRedSplit, OutputFormat.defaultFor(ImageProcessor.Mode.GreenBlueRedSplit), Map.of(), fromBytes);
+        ByteBuffer direct = ByteBuffer.allocateDirect(imageData.length).put(imageData).flip();
+        ByteArrayOutputStream fromDirectBuffer = new ByteArrayOutputStream();
+        ImageProcessor.processImage(direct, ImageProcessor.Mode.GreenBlueRedSplit, OutputFormat.defaultFor(ImageProcessor.Mode.GreenBlueRedSplit), Map.of(), fromDirectBuffer);
+
+        assertEquals(expected, Base64.getEncoder().encodeToString(fromBytes.toByteArray()));
+        assertEquals(expected, Base64.getEncoder().encodeToString(fromDirectBuffer.toByteArray()));
+    }
+
+    @Test
+    void jsonOutputReturnsOnlyTheDetections() throws IOException {
+        byte[] imageData = Base64.getDecoder().decode(testImage);
+        OutputFormat json = new OutputFormat(OutputFormat.Codec.JSON, OutputFormat.DEFAULT_QUALITY);
+
+        ByteArrayOutputStream mandarin = new ByteArrayOutputStream();
+        ImageProcessor.processImage(imageData, ImageProcessor.Mode.Mandarin, json, Map.of(), mandarin);
+        JsonReader reader = new JsonReader(new StringReader(mandarin.toString(StandardCharsets.UTF_8)));
+        reader.beginObject();
+        assertEquals("mode", reader.nextName());
+        assertEquals("Mandarin", reader.nextString());
+        assertEquals("width", reader.nextName());
+        assertEquals(320, reader.nextInt());
+        assertEquals("height", reader.nextName());
+        assertEquals(240, reader.nextInt());
+        assertEquals("mandarin", reader.nextName());
+        reader.beginObject();
+        assertEquals("x", reader.nextName());
+        assertEquals(200, reader.nextDouble(), 1);
+        assertEquals("y", reader.nextName());
+        assertEquals(120, reader.nextDouble(), 1);
+        assertEquals("radius", reader.nextName());
+        assertEquals(40, reader.nextDouble(), 1);
+
+        ByteArrayOutputStream faces = new ByteArrayOutputStream();
+        ImageProcessor.processImage(imageData, ImageProcessor.Mode.FaceDetection, json, Map.of(), faces);
+        assertEquals("{\"mode\":\"FaceDetection\",\"width\":320,\"height\":240,\"faces\":[]}", faces.toString(StandardCharsets.UTF_8));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ImageProcessor.processImage(imageData, ImageProcessor.Mode.Grayscale, json, Map.of(), new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void modesAreProcessorsFromTheRegistryOrChainsOfThem() {
+        assertEquals(List.of(ImageProcessor.Mode.Grayscale, ImageProcessor.Mode.GreenBlueRedSplit, ImageProcessor.Mode.FaceDetection,
+                ImageProcessor.Mode.Mandarin, ImageProcessor.Mode.ColorObjects), ImageProcessor.Mode.values());
+
+        ImageProcessor.Mode chain = ImageProcessor.Mode.valueOf("Grayscale, FaceDetection");
+        assertEquals("Grayscale,FaceDetection", chain.name());
+        assertEquals(ImageProcessor.Mode.valueOf("Grayscale,FaceDetection"), chain);
+        assertEquals(Processor.Input.GRAYSCALE, chain.input());
+        assertTrue(chain.hasDetections());
+        assertEquals(OutputFormat.Codec.JPEG, OutputFormat.defaultFor(chain).codec());
+
+        assertThrows(IllegalArgumentException.class, () -> ImageProcessor.Mode.valueOf("Sepia"));
+        assertThrows(IllegalArgumentException.class, () -> ImageProcessor.Mode.valueOf("Grayscale,"));
+    }
+
+    @Test
+    void sharedDecodeIsGrayscaleOnlyWhenEveryModeStartsFromGrayscale() {
+        Mat image = new Mat(60, 80, CvType.CV_8UC3, new Scalar(10, 120, 200));
+        MatOfByte jpeg = new MatOfByte();
+        Imgcodecs.imencode(".jpg", image, jpeg);
+        ByteBuffer data = ByteBuffer.wrap(jpeg.toArray());
+
+        try (MatScope scope = new MatScope()) {
+            assertEquals(1, ImageProcessor.decode(scope, data, List.of(ImageProcessor.Mode.Grayscale)).channels());
+            assertEquals(3, ImageProcessor.decode(scope, data,
+                    List.of(ImageProcessor.Mode.Grayscale, ImageProcessor.Mode.Mandarin)).channels());
+        }
+        jpeg.release();
+        image.release();
+    }
+
+    @Test
+    void chainedProcessorsWorkOnThePreviousOutput() throws IOException {
+        byte[] imageData = Base64.getDecoder().decode(testImage);
+        OutputFormat json = new OutputFormat(OutputFormat.Codec.JSON, OutputFormat.DEFAULT_QUALITY);
+
+        // Mandarin gets the grayscale image back as BGR, so there is no orange left to find
+        ByteArrayOutputStream mandarin = new ByteArrayOutputStream();
+        ImageProcessor.processImage(imageData, ImageProcessor.Mode.valueOf("Grayscale,Mandarin"), json, Map.of(), mandarin);
+        assertEquals("{\"mode\":\"Grayscale,Mandarin\",\"width\":320,\"height\":240,\"mandarin\":null}",
+                mandarin.toString(StandardCharsets.UTF_8));
+
+        try (MatScope scope = new MatScope()) {
+            Mat image = ImageProcessor.decode(scope, ByteBuffer.wrap(imageData), List.of(ImageProcessor.Mode.FaceDetection));
+            Mat original = scope.track(image.clone());
+            ByteArrayOutputStream annotated = new ByteArrayOutputStream();
+            ImageProcessor.processDecoded(scope, image, ImageProcessor.Mode.valueOf("Grayscale,FaceDetection"),
+                    OutputFormat.defaultFor(ImageProcessor.Mode.FaceDetection), Map.of(), annotated);
+
+            Mat result = scope.track(Imgcodecs.imdecode(new MatOfByte(annotated.toByteArray()), Imgcodecs.IMREAD_UNCHANGED));
+            assertEquals(3, result.channels());
+            assertEquals(0, Core.norm(image, original, Core.NORM_INF), "The shared image is left as it was");
+        }
+    }
+
+    @Test
+    void faceDetectionJsonReportsTheOriginalSizeWhenDecodedReduced() throws IOException {
+        Mat large = new Mat(1600, 2000, CvType.CV_8UC3, new Scalar(120, 120, 120));
+        MatOfByte jpeg = new MatOfByte();
+        Imgcodecs.imencode(".jpg", large, jpeg);
+
+        ByteArrayOutputStream faces = new ByteArrayOutputStream();
+        ImageProcessor.processImage(jpeg.toArray(), ImageProcessor.Mode.FaceDetection,
+                new OutputFormat(OutputFormat.Codec.JSON, OutputFormat.DEFAULT_QUALITY), Map.of("maxDimension", "400"), faces);
+
+        assertEquals("{\"mode\":\"FaceDetection\",\"width\":2000,\"height\":1600,\"faces\":[]}", faces.toString(StandardCharsets.UTF_8));
+        jpeg.release();
+        large.release();
+    }
+
+    @Test
+    void locateMandarinMatchesTheFullResolutionSearch() {
+        // Large enough for the coarse pass, with a smaller orange object that shouldn't be chosen
+        Mat large = new Mat(1500, 2000, CvType.CV_8UC3, new Scalar(90, 90, 90));
+        Imgproc.circle(large, new Point(1234, 567), 150, new Scalar(0, 128, 255), -1);
+        Imgproc.circle(large, new Point(300, 1200), 40, new Scalar(0, 128, 255), -1);
+
+        try (MatScope scope = new MatScope()) {
+            MandarinProcessor.MandarinDetection full = MandarinProcessor.detectMandarin(scope, large, null);
+            MandarinProcessor.MandarinDetection located = MandarinProcessor.locateMandarin(scope, large);
+
+            assertEquals(full.center(), located.center());
+            assertEquals(full.radius(), located.radius());
+            assertEquals(full.area(), located.area());
+        }
+
+        // Nothing orange at all still comes back as not found
+        large.setTo(new Scalar(90, 90, 90));
+        try (MatScope scope = new MatScope()) {
+            assertFalse(MandarinProcessor.locateMandarin(scope, large).found());
+        }
+        large.release();
+    }
+
+    @Test
+    void locateMandarinAgreesOnThinAndSimilarlySizedObjects() {
+        Scalar orange = new Scalar(0, 128, 255);
+        Mat large = new Mat(1500, 2000, CvType.CV_8UC3, new Scalar(90, 90, 90));
+        try (MatScope scope = new MatScope()) {
+            // A bar only a few pixels high once downscaled, which noise removal at that scale would erase
+            Imgproc.rectangle(large, new Point(100, 200), new Point(1900, 207), orange, -1);
+            Imgproc.circle(large, new Point(1000, 900), 50, orange, -1);
+            assertLocatedAsTheFullSearch(scope, large, new Point(1000, 203.5));
+
+            // Two objects close enough in size for sampling to rank them either way
+            large.setTo(new Scalar(90, 90, 90));
+            Imgproc.circle(large, new Point(600, 700), 150, orange, -1);
+            Imgproc.circle(large, new Point(1400, 700), 151, orange, -1);
+            assertLocatedAsTheFullSearch(scope, large, new Point(1400, 700));
+        }
+        large.release();
+    }
+
+    private static void assertLocatedAsTheFullSearch(MatScope scope, Mat image, Point expectedCenter) {
+        MandarinProcessor.MandarinDetection full = MandarinProcessor.detectMandarin(scope, image, null);
+        MandarinProcessor.MandarinDetection located = MandarinProcessor.locateMandarin(scope, image);
+        assertEquals(expectedCenter, full.center());
+        assertEquals(full.center(), located.center());
+        assertEquals(full.area(), located.area());
+    }
+
+    @Test
+    void colorObjectsFindsTheLargestObjectsOfEachColor() {
+        Mat image = new Mat(400, 600, CvType.CV_8UC3, new Scalar(90, 90, 90));
+        Imgproc.circle(image, new Point(100, 100), 40, new Scalar(0, 128, 255), -1);
+        Imgproc.circle(image, new Point(300, 100), 50, new Scalar(0, 255, 0), -1);
+        Imgproc.circle(image, new Point(300, 300), 30, new Scalar(0, 255, 0), -1);
+        Imgproc.circle(image, new Point(500, 300), 20, new Scalar(0, 255, 0), -1);
+        Imgproc.circle(image, new Point(500, 100), 35, new Scalar(0, 0, 255), -1);
+
+        try (MatScope scope = new MatScope()) {
+            Map<String, List<ColorObjectsProcessor.ColorObject>> objects = ColorObjectsProcessor.detectColorObjects(scope, image,
+                    ColorObjectOptions.from(Map.of("colors", "orange:8-18,150-255,100-255;lime:50-70,100-255,80-255;red:170-8,120-255,70-255;blue:110-130,100-255,80-255",
+                            "topK", "2")));
+
+            assertEquals(List.of("orange", "lime", "red", "blue"), List.copyOf(objects.keySet()));
+            // The same mandarin as Mandarin mode finds
+            MandarinProcessor.MandarinDetection mandarin = MandarinProcessor.detectMandarin(scope, image, null);
+            assertEquals(1, objects.get("orange").size());
+            assertEquals(mandarin.area(), objects.get("orange").get(0).area());
+            assertEquals(mandarin.center(), objects.get("orange").get(0).center());
+            // Largest first, limited to topK
+            assertEquals(2, objects.get("lime").size());
+            assertEquals(new Point(300, 100), objects.get("lime").get(0).center());
+            assertEquals(30, objects.get("lime").get(1).radius(), 1);
+            // Red's hue range wraps through 0
+            assertEquals(35, objects.get("red").get(0).radius(), 1);
+            assertEquals(List.of(), objects.get("blue"));
+        }
+        image.release();
+    }
+
+    @Test
+    void mandarinDebugPanelsAreOptIn() throws IOException {
+        byte[] imageData = Base64.getDecoder().decode(testImage);
+        OutputFormat png = OutputFormat.defaultFor(ImageProcessor.Mode.Mandarin);
+
+        ByteArrayOutputStream production = new ByteArrayOutputStream();
+        ImageProcessor.processImage(imageData, ImageProcessor.Mode.Mandarin, png, Map.of(), production);
+        ByteArrayOutputStream debug = new ByteArrayOutputStream();
+        ImageProcessor.processImage(imageData, ImageProcessor.Mode.Mandarin, png, Map.of("debug", "true"), debug);
+
+        Mat productionImage = Imgcodecs.imdecode(new MatOfByte(production.toByteArray()), Imgcodecs.IMREAD_COLOR);
+        Mat debugImage = Imgcodecs.imdecode(new MatOfByte(debug.toByteArray()), Imgcodecs.IMREAD_COLOR);
+        assertEquals(new Size(320, 240), productionImage.size());
+        assertEquals(new Size(320 * 4, 240), debugImage.size());
+        // The annotated image is the same either way
+        Mat difference = new Mat();
+        Core.absdiff(productionImage, debugImage.submat(new Rect(0, 0, 320, 240)), difference);
+        assertEquals(0, Core.countNonZero(difference.reshape(1)));
+        productionImage.release();
+        debugImage.release();
+        difference.release();
+    }
+
+    @Test
+    void matScopeCountsAndReleasesTrackedMats() {
+        MatScope scope = new MatScope();
+        Mat mat = scope.mat(100, 100, CvType.CV_8UC3);
+        scope.track(mat.submat(new Rect(0, 0, 10, 10)));
+
+        assertEquals(100 * 100 * 3, scope.nativeBytes());
+        assertEquals(100 * 100 * 3, MatScope.liveNativeBytes());
+
+        scope.close();
+
+        assertEquals(0, MatScope.liveNativeBytes());
+        assertTrue(mat.empty());
+    }
+}
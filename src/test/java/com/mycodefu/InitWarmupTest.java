@@ -0,0 +1,22 @@
+package com.mycodefu;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InitWarmupTest {
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    @Test
+    void runLeavesNoNativeMemoryBehind() {
+        InitWarmup.run();
+
+        assertEquals(0, MatScope.openScopes());
+        assertEquals(0, MatPool.SHARED.pooledMats());
+    }
+}
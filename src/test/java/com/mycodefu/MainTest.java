@@ -5,6 +5,9 @@ import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -45,4 +48,47 @@ class MainTest {
         assertTrue(apiGatewayV2HTTPResponse.getIsBase64Encoded());
         assertEquals(testImageGrayscaled, apiGatewayV2HTTPResponse.getBody());
     }
-}
\ No newline at end of file
+
+    @Test
+    void handleRequest_invalidOptionsAreABadRequest() {
+        APIGatewayV2HTTPResponse unknownMode = new Main().handleRequest(post(Map.of("mode", "Sepia")), null);
+        assertEquals(400, unknownMode.getStatusCode());
+        assertEquals("text/plain", unknownMode.getHeaders().get("Content-Type"));
+        assertTrue(unknownMode.getBody().contains("Sepia"));
+
+        APIGatewayV2HTTPResponse unknownFormat = new Main().handleRequest(post(Map.of("format", "gif")), null);
+        assertEquals(400, unknownFormat.getStatusCode());
+    }
+
+    @Test
+    void handleRequest_unprocessableImagesAreABadRequest() {
+        APIGatewayV2HTTPEvent undecodable = post(Map.of());
+        undecodable.setBody(Base64.getEncoder().encodeToString("not an image".getBytes(StandardCharsets.UTF_8)));
+        APIGatewayV2HTTPResponse response = new Main().handleRequest(undecodable, null);
+        assertEquals(400, response.getStatusCode());
+        assertEquals("text/plain", response.getHeaders().get("Content-Type"));
+        assertEquals("Could not decode the input image", response.getBody());
+
+        APIGatewayV2HTTPEvent notBase64 = post(Map.of());
+        notBase64.setBody("not base64!");
+        assertEquals(400, new Main().handleRequest(notBase64, null).getStatusCode());
+
+        APIGatewayV2HTTPResponse detections = new Main().handleRequest(post(Map.of("mode", "FaceDetection", "output", "json")), null);
+        assertEquals(200, detections.getStatusCode());
+        APIGatewayV2HTTPResponse noDetections = new Main().handleRequest(post(Map.of("mode", "Grayscale", "output", "json")), null);
+        assertEquals(400, noDetections.getStatusCode());
+    }
+
+    private static APIGatewayV2HTTPEvent post(Map<String, String> queryStringParameters) {
+        return APIGatewayV2HTTPEvent.builder()
+                .withRequestContext(APIGatewayV2HTTPEvent.RequestContext.builder()
+                        .withHttp(APIGatewayV2HTTPEvent.RequestContext.Http.builder()
+                                .withMethod("POST")
+                                .build())
+                        .build())
+                .withQueryStringParameters(queryStringParameters)
+                .withBody(testImage)
+                .withIsBase64Encoded(true)
+                .build();
+    }
+}
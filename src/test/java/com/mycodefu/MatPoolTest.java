@@ -0,0 +1,62 @@
+package com.mycodefu;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MatPoolTest {
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    @Test
+    void borrowReusesReturnedBuffersOfTheSameShape() {
+        MatPool pool = new MatPool(4, Long.MAX_VALUE);
+
+        Mat first = pool.borrow(10, 20, CvType.CV_8UC3);
+        long address = first.dataAddr();
+        pool.giveBack(first);
+        Mat second = pool.borrow(10, 20, CvType.CV_8UC3);
+        Mat otherShape = pool.borrow(20, 10, CvType.CV_8UC3);
+
+        assertEquals(address, second.dataAddr());
+        assertEquals(1, pool.hits());
+        assertEquals(2, pool.misses());
+        assertEquals(0, pool.pooledMats());
+        pool.clear();
+    }
+
+    @Test
+    void giveBackEvictsFromTheLeastRecentlyUsedBucket() {
+        MatPool pool = new MatPool(2, Long.MAX_VALUE);
+
+        pool.giveBack(new Mat(1, 1, CvType.CV_8UC1));
+        pool.giveBack(new Mat(2, 2, CvType.CV_8UC1));
+        pool.giveBack(new Mat(3, 3, CvType.CV_8UC1));
+
+        assertEquals(2, pool.pooledMats());
+        assertEquals(1, pool.evictions());
+        assertEquals(4 + 9, pool.pooledBytes());
+
+        pool.borrow(1, 1, CvType.CV_8UC1);
+        assertEquals(0, pool.hits());
+        pool.clear();
+    }
+
+    @Test
+    void giveBackRespectsTheByteBudget() {
+        MatPool pool = new MatPool(10, 100);
+
+        pool.giveBack(new Mat(10, 10, CvType.CV_8UC1));
+        pool.giveBack(new Mat(20, 20, CvType.CV_8UC1));
+
+        assertEquals(1, pool.pooledMats());
+        assertEquals(100, pool.pooledBytes());
+        pool.clear();
+    }
+}
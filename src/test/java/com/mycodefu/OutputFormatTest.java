@@ -0,0 +1,44 @@
+package com.mycodefu;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static com.mycodefu.ImageProcessor.Mode.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutputFormatTest {
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    @Test
+    void eachModeHasADefault() {
+        assertEquals(new OutputFormat(OutputFormat.Codec.PNG, OutputFormat.DEFAULT_QUALITY), OutputFormat.negotiate(Grayscale, null, null));
+        assertEquals(new OutputFormat(OutputFormat.Codec.JPEG, 90), OutputFormat.negotiate(Mandarin, Map.of(), "*/*"));
+    }
+
+    @Test
+    void queryStringParametersWinOverTheAcceptHeader() {
+        OutputFormat format = OutputFormat.negotiate(Grayscale, Map.of("format", "webp", "quality", "75"), "image/jpeg");
+
+        assertEquals(new OutputFormat(OutputFormat.Codec.WEBP, 75), format);
+        assertEquals("image/webp", format.contentType());
+    }
+
+    @Test
+    void acceptHeaderIsNegotiatedByWeight() {
+        assertEquals(OutputFormat.Codec.JPEG, OutputFormat.negotiate(Grayscale, null, "image/png;q=0.5, image/jpeg, */*;q=0.1").codec());
+        assertEquals(OutputFormat.Codec.PNG, OutputFormat.negotiate(FaceDetection, null, "text/html, image/png").codec());
+    }
+
+    @Test
+    void invalidParametersAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> OutputFormat.negotiate(Grayscale, Map.of("format", "gif"), null));
+        assertThrows(IllegalArgumentException.class, () -> OutputFormat.negotiate(Grayscale, Map.of("format", "png", "quality", "10"), null));
+        assertThrows(IllegalArgumentException.class, () -> OutputFormat.negotiate(Grayscale, Map.of("quality", "high"), null));
+    }
+}
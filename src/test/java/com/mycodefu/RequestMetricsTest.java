@@ -0,0 +1,45 @@
+package com.mycodefu;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class RequestMetricsTest {
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+        assumeTrue(RequestMetrics.ENABLED, "Needs -Dmetrics.enabled=true, as the build sets for tests");
+    }
+
+    @Test
+    void inheritingCarriesTheRequestOverToPoolThreads() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (RequestMetrics metrics = RequestMetrics.start("Test")) {
+            assertSame(metrics, executor.submit(RequestMetrics.inheriting(RequestMetrics::current)).get());
+            // Without it the pool thread has no request of its own
+            assertNotSame(metrics, executor.submit(RequestMetrics::current).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void nativeBytesCountOnlyTheRequestsOwnScope() {
+        try (MatScope other = new MatScope(); MatScope own = new MatScope();
+             RequestMetrics metrics = RequestMetrics.start("Test")) {
+            other.mat(1000, 1000, CvType.CV_8UC3);
+            own.mat(100, 100, CvType.CV_8UC3);
+
+            metrics.sampleNativeBytes(own);
+
+            assertEquals(100 * 100 * 3, metrics.nativeBytes());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.mycodefu;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Scalar;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultCacheTest {
+    private static final OutputFormat PNG = new OutputFormat(OutputFormat.Codec.PNG, OutputFormat.DEFAULT_QUALITY);
+
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    private static ByteBuffer bytes(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void keyCoversTheImageModeFormatAndParameters() {
+        String key = ResultCache.key(bytes("image"), ImageProcessor.Mode.FaceDetection, PNG, Map.of("minSize", "30", "mode", "FaceDetection"));
+
+        assertEquals(key, ResultCache.key(bytes("image"), ImageProcessor.Mode.FaceDetection, PNG, Map.of("minSize", "30")));
+        assertNotEquals(key, ResultCache.key(bytes("other"), ImageProcessor.Mode.FaceDetection, PNG, Map.of("minSize", "30")));
+        assertNotEquals(key, ResultCache.key(bytes("image"), ImageProcessor.Mode.Mandarin, PNG, Map.of("minSize", "30")));
+        assertNotEquals(key, ResultCache.key(bytes("image"), ImageProcessor.Mode.FaceDetection, new OutputFormat(OutputFormat.Codec.PNG, 9), Map.of("minSize", "30")));
+        assertNotEquals(key, ResultCache.key(bytes("image"), ImageProcessor.Mode.FaceDetection, PNG, Map.of("minSize", "40")));
+        assertEquals(32, key.length());
+    }
+
+    @Test
+    void keyIsStampedWithTheBuild() {
+        // Filtered into the resource by the Maven build, so a new build never matches an earlier build's keys
+        String buildId = ResultCache.buildId();
+        assertFalse(buildId.isBlank());
+        assertNotEquals("dev", buildId);
+    }
+
+    @Test
+    void matchesAcceptsListsWeakTagsAndWildcards() {
+        String etag = ResultCache.etag("abc");
+
+        assertTrue(ResultCache.matches("\"abc\"", etag));
+        assertTrue(ResultCache.matches("\"xyz\", W/\"abc\"", etag));
+        assertTrue(ResultCache.matches("*", etag));
+        assertFalse(ResultCache.matches("\"xyz\"", etag));
+        assertFalse(ResultCache.matches(null, etag));
+    }
+
+    @Test
+    void memoryTierEvictsTheLeastRecentlyUsedResultsBySize() {
+        ResultCache cache = new ResultCache(400, null, 0);
+
+        cache.put("a", new byte[100]);
+        cache.put("b", new byte[100]);
+        cache.put("c", new byte[100]);
+        cache.get("a");
+        cache.put("d", new byte[100]);
+        cache.put("e", new byte[100]);
+
+        assertEquals(400, cache.memoryBytes());
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("e"));
+
+        // Too large a share of the tier to be worth keeping
+        cache.put("large", new byte[101]);
+        assertNull(cache.get("large"));
+    }
+
+    @Test
+    void diskTierSurvivesANewInstanceAndIsBounded(@TempDir Path directory) {
+        ResultCache first = new ResultCache(1024, directory, 250);
+        first.put("a", new byte[100]);
+        first.put("b", new byte[100]);
+        first.put("c", new byte[100]);
+        assertEquals(200, first.diskBytes());
+
+        ResultCache second = new ResultCache(1024, directory, 250);
+        assertEquals(200, second.diskBytes());
+        assertNull(second.get("a"));
+        assertArrayEquals(new byte[100], second.get("c"));
+        assertEquals(1, second.hits());
+        assertEquals(100, second.memoryBytes());
+    }
+
+    @Test
+    void processImageStreamsTheResultAndCachesItOnlyWhenSmallEnough(@TempDir Path directory) throws IOException {
+        Mat image = new Mat(60, 80, CvType.CV_8UC3, new Scalar(40, 80, 120));
+        MatOfByte encoded = new MatOfByte();
+        Imgcodecs.imencode(".png", image, encoded);
+        ByteBuffer imageData = ByteBuffer.wrap(encoded.toArray());
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ImageProcessor.processImage(imageData, ImageProcessor.Mode.Grayscale, PNG, Map.of(), expected);
+
+        ResultCache cache = new ResultCache(1024 * 1024, null, 0);
+        ByteArrayOutputStream miss = new ByteArrayOutputStream();
+        cache.processImage("key", imageData, ImageProcessor.Mode.Grayscale, PNG, Map.of(), miss);
+        ByteArrayOutputStream hit = new ByteArrayOutputStream();
+        cache.processImage("key", imageData, ImageProcessor.Mode.Grayscale, PNG, Map.of(), hit);
+        assertArrayEquals(expected.toByteArray(), miss.toByteArray());
+        assertArrayEquals(expected.toByteArray(), hit.toByteArray());
+        assertEquals(1, cache.hits());
+
+        // Larger than a quarter of the memory tier and no disk tier, so only streamed
+        ResultCache small = new ResultCache(expected.size() * 2L, null, 0);
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        small.processImage("key", imageData, ImageProcessor.Mode.Grayscale, PNG, Map.of(), streamed);
+        assertArrayEquals(expected.toByteArray(), streamed.toByteArray());
+        assertNull(small.get("key"));
+        assertEquals(0, small.memoryBytes());
+
+        // A disk tier doesn't raise how much of a result is held on the heap to be cached
+        ResultCache withDisk = new ResultCache(expected.size() * 2L, directory, 512L * 1024 * 1024);
+        withDisk.processImage("key", imageData, ImageProcessor.Mode.Grayscale, PNG, Map.of(), new ByteArrayOutputStream());
+        assertNull(withDisk.get("key"));
+        assertEquals(0, withDisk.diskBytes());
+        encoded.release();
+        image.release();
+    }
+
+    @Test
+    void mainReturnsNotModifiedForAMatchingETag() {
+        Mat image = new Mat(60, 80, CvType.CV_8UC3, new Scalar(40, 80, 120));
+        MatOfByte encoded = new MatOfByte();
+        Imgcodecs.imencode(".png", image, encoded);
+        String testImage = Base64.getEncoder().encodeToString(encoded.toArray());
+        encoded.release();
+        image.release();
+        APIGatewayV2HTTPEvent.APIGatewayV2HTTPEventBuilder event = APIGatewayV2HTTPEvent.builder()
+                .withRequestContext(APIGatewayV2HTTPEvent.RequestContext.builder()
+                        .withHttp(APIGatewayV2HTTPEvent.RequestContext.Http.builder().withMethod("POST").build())
+                        .build())
+                .withQueryStringParameters(Map.of("mode", "Grayscale"))
+                .withBody(testImage);
+        Main main = new Main();
+
+        APIGatewayV2HTTPResponse first = main.handleRequest(event.build(), null);
+        String etag = first.getHeaders().get("ETag");
+        APIGatewayV2HTTPResponse cached = main.handleRequest(event.build(), null);
+        APIGatewayV2HTTPResponse notModified = main.handleRequest(event.withHeaders(Map.of("if-none-match", etag)).build(), null);
+
+        assertEquals(200, first.getStatusCode());
+        assertEquals(first.getBody(), cached.getBody());
+        assertEquals(etag, cached.getHeaders().get("ETag"));
+        assertEquals(304, notModified.getStatusCode());
+        assertNull(notModified.getBody());
+        assertEquals(etag, notModified.getHeaders().get("ETag"));
+    }
+}
@@ -0,0 +1,91 @@
+package com.mycodefu;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.*;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingMainTest {
+    private static String testImage;
+
+    @BeforeAll
+    static void createTestImage() {
+        OpenCV.loadLocally();
+
+        Mat image = new Mat(120, 160, CvType.CV_8UC3, new Scalar(40, 80, 120));
+        Imgproc.circle(image, new Point(80, 60), 30, new Scalar(0, 128, 255), -1);
+        MatOfByte encoded = new MatOfByte();
+        Imgcodecs.imencode(".png", image, encoded);
+        testImage = Base64.getEncoder().encodeToString(encoded.toArray());
+        encoded.release();
+        image.release();
+    }
+
+    private static Map<String, Object> invoke(String event) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new StreamingMain().handleRequest(new ByteArrayInputStream(event.getBytes(StandardCharsets.UTF_8)), output, null);
+
+        Map<String, Object> response = new HashMap<>();
+        JsonReader json = new JsonReader(new StringReader(output.toString(StandardCharsets.UTF_8)));
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            switch (name) {
+                case "statusCode" -> response.put(name, json.nextInt());
+                case "isBase64Encoded" -> response.put(name, json.nextBoolean());
+                case "headers" -> response.put(name, json.nextStringMap());
+                default -> response.put(name, json.nextString());
+            }
+        }
+        json.endObject();
+        return response;
+    }
+
+    @Test
+    void handleRequestStreamsTheProcessedImage() throws IOException {
+        Map<String, Object> response = invoke("""
+                {"version":"2.0","rawPath":"/","queryStringParameters":{"mode":"Mandarin"},
+                 "headers":{"content-type":"image/png"},
+                 "requestContext":{"accountId":"anonymous","http":{"method":"POST","path":"/"}},
+                 "body":"%s","isBase64Encoded":true}
+                """.formatted(testImage));
+
+        assertEquals(200, response.get("statusCode"));
+        assertEquals(true, response.get("isBase64Encoded"));
+        Map<?, ?> headers = (Map<?, ?>) response.get("headers");
+        assertEquals("image/jpeg", headers.get("Content-Type"));
+        assertEquals("Accept", headers.get("Vary"));
+        assertNotNull(headers.get("ETag"));
+        assertEquals(ImageProcessor.processImage(testImage, ImageProcessor.Mode.Mandarin), response.get("body"));
+    }
+
+    @Test
+    void handleRequestReportsBadInputAsBadRequest() throws IOException {
+        Map<String, Object> response = invoke("""
+                {"requestContext":{"http":{"method":"POST"}},"body":"bm90IGFuIGltYWdl","isBase64Encoded":true}
+                """);
+
+        assertEquals(400, response.get("statusCode"));
+        assertEquals("Could not decode the input image", response.get("body"));
+    }
+
+    @Test
+    void handleRequestDelegatesOtherMethods() throws IOException {
+        Map<String, Object> response = invoke("""
+                {"requestContext":{"http":{"method":"GET"}},"queryStringParameters":null,"isBase64Encoded":false}
+                """);
+
+        assertEquals(200, response.get("statusCode"));
+        assertTrue(((String) response.get("body")).contains("<!DOCTYPE html>"));
+    }
+}
@@ -0,0 +1,93 @@
+package com.mycodefu;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TiledExecutorTest {
+    private static final TiledExecutor SEQUENTIAL = new TiledExecutor(1, 0);
+    private static final TiledExecutor TILED = new TiledExecutor(4, 0);
+
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    private static Mat noise(MatScope scope, int rows, int cols, int type) {
+        Mat image = scope.mat(rows, cols, type);
+        Core.setRNGSeed(42);
+        Core.randu(image, 0, 256);
+        return image;
+    }
+
+    private static void assertIdentical(Mat expected, Mat actual) {
+        assertEquals(expected.size(), actual.size());
+        Mat difference = new Mat();
+        Core.compare(expected.reshape(1), actual.reshape(1), difference, Core.CMP_NE);
+        assertEquals(0, Core.countNonZero(difference));
+        difference.release();
+    }
+
+    @Test
+    void perPixelOperationsAreBitIdenticalToTheSequentialPath() {
+        try (MatScope scope = new MatScope()) {
+            Mat image = noise(scope, 517, 301, CvType.CV_8UC3);
+            assertEquals(4, TILED.bands(image));
+
+            Mat expected = scope.mat(image.rows(), image.cols(), CvType.CV_8UC1);
+            Mat actual = scope.mat(image.rows(), image.cols(), CvType.CV_8UC1);
+            TiledExecutor.BandOperation threshold = (src, dst) -> {
+                Mat hsv = new Mat();
+                Imgproc.cvtColor(src, hsv, Imgproc.COLOR_BGR2HSV);
+                Core.inRange(hsv, new Scalar(8, 150, 100), new Scalar(18, 255, 255), dst);
+                hsv.release();
+            };
+            SEQUENTIAL.apply(scope, image, expected, threshold);
+            TILED.apply(scope, image, actual, threshold);
+
+            assertIdentical(expected, actual);
+        }
+    }
+
+    @Test
+    void morphologyWithAHaloIsBitIdenticalToTheSequentialPath() {
+        try (MatScope scope = new MatScope()) {
+            Mat mask = noise(scope, 600, 257, CvType.CV_8UC1);
+            Imgproc.threshold(mask, mask, 127, 255, Imgproc.THRESH_BINARY);
+            Mat kernel = scope.track(Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(5, 5)));
+
+            for (int operation : new int[]{Imgproc.MORPH_OPEN, Imgproc.MORPH_CLOSE}) {
+                Mat expected = scope.mat(mask.rows(), mask.cols(), CvType.CV_8UC1);
+                Mat actual = scope.mat(mask.rows(), mask.cols(), CvType.CV_8UC1);
+                TiledExecutor.BandOperation morphology = (src, dst) -> Imgproc.morphologyEx(src, dst, operation, kernel);
+                SEQUENTIAL.apply(scope, mask, expected, 4, morphology);
+                TILED.apply(scope, mask, actual, 4, morphology);
+
+                assertIdentical(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    void operationsThatReallocateTheirBandAreRejected() {
+        try (MatScope scope = new MatScope()) {
+            Mat image = noise(scope, 512, 64, CvType.CV_8UC3);
+            Mat wrongType = scope.mat(image.rows(), image.cols(), CvType.CV_8UC3);
+
+            assertThrows(IllegalStateException.class, () -> TILED.apply(scope, image, wrongType,
+                    (src, dst) -> Imgproc.cvtColor(src, dst, Imgproc.COLOR_BGR2GRAY)));
+        }
+    }
+
+    @Test
+    void smallImagesAreNotTiled() {
+        try (MatScope scope = new MatScope()) {
+            assertEquals(1, new TiledExecutor(4, 1_000_000).bands(noise(scope, 512, 512, CvType.CV_8UC1)));
+            assertEquals(1, TILED.bands(noise(scope, 100, 512, CvType.CV_8UC1)));
+        }
+    }
+}
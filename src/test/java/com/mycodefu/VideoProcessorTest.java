@@ -0,0 +1,147 @@
+package com.mycodefu;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.*;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VideoProcessorTest {
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    // A mandarin moving right across the frame, encoded with restart markers and progressively to exercise the frame reader
+    private static byte[] frame(int centerX, int... encodeParameters) {
+        Mat image = new Mat(360, 640, CvType.CV_8UC3, new Scalar(90, 90, 90));
+        Imgproc.circle(image, new Point(centerX, 180), 30, new Scalar(0, 128, 255), -1);
+        MatOfByte encoded = new MatOfByte();
+        Imgcodecs.imencode(".jpg", image, encoded, new MatOfInt(encodeParameters));
+        byte[] bytes = encoded.toArray();
+        encoded.release();
+        image.release();
+        return bytes;
+    }
+
+    private static byte[] multipart(byte[]... frames) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (byte[] frame : frames) {
+            stream.writeBytes("--frame\r\nContent-Type: image/jpeg\r\nContent-Length: %d\r\n\r\n".formatted(frame.length)
+                    .getBytes(StandardCharsets.US_ASCII));
+            stream.writeBytes(frame);
+            stream.writeBytes("\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        stream.writeBytes("--frame--\r\n".getBytes(StandardCharsets.US_ASCII));
+        return stream.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> process(byte[] frames, ImageProcessor.Mode mode) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        VideoProcessor.process(new ByteArrayInputStream(frames), mode, Map.of(), output);
+        List<Map<String, Object>> lines = new ArrayList<>();
+        for (String line : output.toString(StandardCharsets.UTF_8).split("\n")) {
+            lines.add((Map<String, Object>) BatchProcessorTest.readValue(new JsonReader(new StringReader(line))));
+        }
+        return lines;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void mandarinIsTrackedFromFrameToFrame() throws IOException {
+        List<Map<String, Object>> lines = process(multipart(
+                frame(200),
+                frame(220, Imgcodecs.IMWRITE_JPEG_RST_INTERVAL, 4),
+                frame(240, Imgcodecs.IMWRITE_JPEG_PROGRESSIVE, 1),
+                "not a jpeg".getBytes(StandardCharsets.US_ASCII),
+                new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9},
+                frame(260)), ImageProcessor.Mode.Mandarin);
+
+        assertEquals(5, lines.size());
+        int[] expectedX = {200, 220, 240};
+        for (int index = 0; index < expectedX.length; index++) {
+            Map<String, Object> line = lines.get(index);
+            assertEquals((double) index, line.get("frame"));
+            assertEquals(640.0, line.get("width"));
+            // Only the first frame is searched in full
+            assertEquals(index > 0, line.get("tracked"));
+            Map<String, Object> mandarin = (Map<String, Object>) line.get("mandarin");
+            assertEquals(expectedX[index], (double) mandarin.get("x"), 2);
+            assertEquals(180, (double) mandarin.get("y"), 2);
+            assertEquals(30, (double) mandarin.get("radius"), 2);
+        }
+        // Bytes between frames are skipped, while a frame that fails to decode is reported and loses the track
+        assertEquals("Could not decode the input image", lines.get(3).get("error"));
+        assertEquals(false, lines.get(4).get("tracked"));
+        assertEquals(260, (double) ((Map<String, Object>) lines.get(4).get("mandarin")).get("x"), 2);
+    }
+
+    @Test
+    void faceDetectionRunsOnEachFrame() throws IOException {
+        byte[] frame = frame(200);
+        ByteArrayOutputStream mjpeg = new ByteArrayOutputStream();
+        mjpeg.writeBytes(frame);
+        mjpeg.writeBytes(frame);
+
+        List<Map<String, Object>> lines = process(mjpeg.toByteArray(), ImageProcessor.Mode.FaceDetection);
+
+        assertEquals(2, lines.size());
+        assertEquals("FaceDetection", lines.get(1).get("mode"));
+        assertEquals(List.of(), lines.get(1).get("faces"));
+    }
+
+    @Test
+    void streamProblemsEndTheOutput() throws IOException {
+        byte[] frame = frame(200);
+        byte[] truncated = Arrays.copyOf(frame, frame.length / 2);
+
+        assertThrows(IllegalArgumentException.class, () -> process(truncated, ImageProcessor.Mode.Mandarin));
+        assertThrows(IllegalArgumentException.class, () -> process(new byte[0], ImageProcessor.Mode.Mandarin));
+        assertThrows(IllegalArgumentException.class, () -> process(frame, ImageProcessor.Mode.Grayscale));
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.writeBytes(frame);
+        stream.writeBytes(truncated);
+        List<Map<String, Object>> lines = process(stream.toByteArray(), ImageProcessor.Mode.Mandarin);
+        assertEquals(2, lines.size());
+        assertEquals("The stream ended part way through a frame", lines.get(1).get("error"));
+    }
+
+    @Test
+    void mainAnswersAnInvalidStreamWithABadRequest() {
+        APIGatewayV2HTTPEvent event = APIGatewayV2HTTPEvent.builder()
+                .withRequestContext(APIGatewayV2HTTPEvent.RequestContext.builder()
+                        .withHttp(APIGatewayV2HTTPEvent.RequestContext.Http.builder().withMethod("POST").build())
+                        .build())
+                .withHeaders(Map.of("content-type", "multipart/x-mixed-replace; boundary=frame"))
+                .withQueryStringParameters(Map.of("mode", "Grayscale"))
+                .withIsBase64Encoded(true)
+                .withBody(Base64.getEncoder().encodeToString(multipart(frame(200))))
+                .build();
+
+        APIGatewayV2HTTPResponse response = new Main().handleRequest(event, null);
+        assertEquals(400, response.getStatusCode());
+        assertEquals("text/plain", response.getHeaders().get("Content-Type"));
+
+        event.setQueryStringParameters(Map.of("mode", "Sepia"));
+        assertEquals(400, new Main().handleRequest(event, null).getStatusCode());
+    }
+
+    @Test
+    void isVideo() {
+        assertTrue(VideoProcessor.isVideo("multipart/x-mixed-replace; boundary=frame"));
+        assertTrue(VideoProcessor.isVideo("video/x-motion-jpeg"));
+        assertFalse(VideoProcessor.isVideo("image/jpeg"));
+        assertFalse(VideoProcessor.isVideo(null));
+    }
+}